@@ -0,0 +1,270 @@
+package com.company;
+
+// JMH benchmarks for the solver, kept out of the main sources so they never end up in the display build.
+// bench/pom.xml compiles them together with the solver's sources into one jar; from bench/:
+//
+//   mvn -B package
+//   java -jar target/benchmarks.jar HeatBenchmark -rf json -rff bench.json
+//
+// -p picks the parameters, e.g. -p size=1024x1024 -p threads=1,2,4, and a regex after the jar picks the
+// benchmarks (HeatBenchmark.sweep). The vector kernel needs the vector profile, and the module in the forks:
+//
+//   mvn -B package -Pvector
+//   java -jar target/benchmarks.jar HeatBenchmark.sweep -p kernel=scalar,vector \
+//        -jvmArgsAppend --add-modules=jdk.incubator.vector
+//
+// Every benchmark and parameter combination runs in forks of its own, so a kernel never shares a JIT profile
+// with another: stencilSweep's alloy, four-point and anisotropic loops each see a monomorphic sweepColumn call,
+// the way a real run (one kernel per run) does. Next to each score JMH reports "cells", the cells updated per
+// second (per millisecond for doCompute).
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(2)
+public class HeatBenchmark {
+
+    // the plate, on an engine of its own with the whole plate as one leaf
+    @State(Scope.Thread)
+    public static class Plate {
+        @Param({ "128x128", "512x512", "1024x1024" })
+        public String size;
+
+        int width, height;
+        HeatEngine engine;
+        HeatEngine.LeafNode leaf;
+
+        @Setup
+        public void setUp() {
+            String[] wh = size.split("x");
+            width = Integer.parseInt(wh[0]);
+            height = Integer.parseInt(wh[1]);
+            engine = engine(width, height, 1, SimulationConfig.Kernel.SCALAR);
+            leaf = engine.new LeafNode(null, engine.grid, 0, height, 0, width);
+        }
+
+        long cells() {
+            return (long) width * height;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Threads {
+        @Param({ "1", "4" })
+        public int threads;
+    }
+
+    // the cells a benchmark updated, which JMH reports as a rate next to its score
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Cells {
+        public long cells;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            cells = 0;
+        }
+    }
+
+    static HeatEngine engine(int width, int height, int threads, SimulationConfig.Kernel kernel) {
+        return new HeatEngine(new SimulationConfig(width, height, 500).setParallelism(threads).setKernel(kernel));
+    }
+
+    // one LeafNode.compute() covering the whole plate, on the calling thread
+    @Benchmark
+    public double leafCompute(Plate p, Cells c) {
+        p.leaf.compute();
+        p.leaf.reinitialize();
+        c.cells += p.cells();
+        return p.leaf.lowestTemp;
+    }
+
+    // findNeighbors + calcNewTemp for every cell
+    @Benchmark
+    public void cellStencil(Plate p, Cells c, Blackhole bh) {
+        HeatEngine.LeafNode leaf = p.leaf;
+        double[] a = p.engine.grid.A;
+        int width = p.width, height = p.height;
+        for (int i = 0; i < width; i++) {
+            for (int j = 0; j < height; j++) {
+                int idx = i * height + j;
+                int n = leaf.findNeighbors(i, j, a, idx, height, leaf.neighbors);
+                bh.consume(leaf.calcNewTemp(i, j, idx, n));
+            }
+        }
+        c.cells += p.cells();
+    }
+
+    @State(Scope.Thread)
+    public static class Stencil {
+        // inlined is the baseline, a copy of Alloy's loop written out in this class
+        @Param({ "inlined", "alloy" })
+        public String stencil;
+
+        StencilKernel kernel; // null for inlined
+        final double[] change = new double[2];
+
+        @Setup
+        public void setUp(Plate p) {
+            kernel = stencil(stencil, p.engine.config);
+        }
+    }
+
+    static StencilKernel stencil(String name, SimulationConfig config) {
+        switch (name) {
+            case "inlined": return null;
+            case "alloy": return StencilKernel.Alloy.of(config, true);
+            case "four-point": return new StencilKernel.FourPoint();
+            case "anisotropic": return new StencilKernel.Anisotropic(1, 0.5, 0.25);
+            default: throw new IllegalArgumentException("unknown stencil " + name);
+        }
+    }
+
+    // The interior of the plate (every column's rows 1..height-2) through a StencilKernel's column loop, one
+    // interface call per column the way LeafNode makes them. Alloy against inlined is the cost of the kernel
+    // interface.
+    @Benchmark
+    public double stencilSweep(Plate p, Stencil s, Cells c) {
+        HeatGrid grid = p.engine.grid;
+        StencilKernel kernel = s.kernel;
+        double[] change = s.change;
+        double ct = p.engine.convergenceTemp, lt = ct;
+        change[0] = change[1] = 0;
+        for (int i = 1; i < p.width - 1; i++) {
+            lt = kernel != null ? kernel.sweepColumn(grid.A, grid.B, null, grid, i, 1, p.height - 2, ct, lt, change)
+                    : inlinedColumn(p.engine, grid.A, grid.B, i, 1, p.height - 2, ct, lt, change);
+        }
+        c.cells += (long) (p.width - 2) * (p.height - 2);
+        return lt;
+    }
+
+    // StencilKernel.Alloy.sweepColumn, clamped, pasted in as the baseline
+    private static double inlinedColumn(HeatEngine e, double[] a, double[] b, int col, int lo, int hi,
+                                        double ct, double lt, double[] change) {
+        final int s = e.height;
+        final double ar = e.A_RATIO, br = e.B_RATIO, cr = e.C_RATIO;
+        final double ac = e.A_CONSTANT, bc = e.B_CONSTANT, cc = e.C_CONSTANT;
+        final HeatGrid grid = e.grid;
+        double d = change[0], ss = change[1];
+        for (int idx = col * s + lo, end = col * s + hi; idx <= end; ++idx) {
+            double old = a[idx];
+            if (grid.isSource(idx) || old >= ct)
+                continue;
+            double n0 = a[idx - s + 1], n1 = a[idx - s], n2 = a[idx - s - 1], n3 = a[idx - 1];
+            double n4 = a[idx + s - 1], n5 = a[idx + s], n6 = a[idx + s + 1], n7 = a[idx + 1];
+            double newTemp = ac * (n0 * ar + n1 * ar + n2 * ar + n3 * ar + n4 * ar + n5 * ar + n6 * ar + n7 * ar) / 8
+                    + bc * (n0 * br + n1 * br + n2 * br + n3 * br + n4 * br + n5 * br + n6 * br + n7 * br) / 8
+                    + cc * (n0 * cr + n1 * cr + n2 * cr + n3 * cr + n4 * cr + n5 * cr + n6 * cr + n7 * cr) / 8;
+            double hottest = Math.max(Math.max(Math.max(n0, n1), Math.max(n2, n3)), Math.max(Math.max(n4, n5), n6));
+            newTemp = Math.min(newTemp, hottest);
+            double written = b[idx];
+            double delta = newTemp - (written >= ct ? written : old);
+            b[idx] = newTemp;
+            if (newTemp < lt) lt = newTemp;
+            d = Math.max(d, Math.abs(delta));
+            ss += delta * delta;
+        }
+        change[0] = d;
+        change[1] = ss;
+        return lt;
+    }
+
+    @State(Scope.Thread)
+    public static class Granularity {
+        @Param({ "1024", "16384", "65536" })
+        public int granularity;
+    }
+
+    // building the completer tree at a given leaf size
+    @Benchmark
+    public int driverBuild(Plate p, Granularity g) {
+        return p.engine.new Driver(p.engine.grid, 0, p.height, 0, p.width, g.granularity).nleaf;
+    }
+
+    // the tree on a pool of its own, run once per op the way Driver.doCompute runs it every sweep
+    @State(Scope.Thread)
+    public static class Tree {
+        @Param({ "scalar" })
+        public String kernel;
+
+        HeatEngine.MatrixTree root;
+        ForkJoinPool pool;
+        ForkJoinTask<?> sweep;
+
+        @Setup
+        public void setUp(Plate p, Threads t) {
+            HeatEngine engine = engine(p.width, p.height, t.threads, SimulationConfig.Kernel.valueOf(kernel.toUpperCase()));
+            HeatEngine.Driver driver = engine.new Driver(engine.grid, 0, p.height, 0, p.width, engine.granularity);
+            HeatEngine.MatrixTree m = driver.mat;
+            root = m;
+            pool = new ForkJoinPool(t.threads);
+            sweep = ForkJoinTask.adapt(() -> {
+                m.setPendingCount(m.forks);
+                m.invoke();
+                m.reinitialize();
+            });
+        }
+
+        @TearDown
+        public void tearDown() {
+            pool.shutdown();
+        }
+    }
+
+    // one sweep of the whole tree
+    @Benchmark
+    public double sweep(Plate p, Tree t, Cells c) {
+        t.pool.invoke(t.sweep);
+        t.sweep.reinitialize();
+        c.cells += p.cells();
+        return t.root.lowestTemp;
+    }
+
+    // a cold plate for every op, so doCompute always starts from the beginning
+    @State(Scope.Thread)
+    public static class Run {
+        // a cap for the large plates, which take far longer to converge
+        @Param({ "2000" })
+        public long maxSweeps;
+
+        HeatEngine engine;
+
+        @Setup(Level.Invocation)
+        public void setUp(Plate p, Threads t) {
+            engine = new HeatEngine(new SimulationConfig(p.width, p.height, 500)
+                    .setParallelism(t.threads)
+                    .setMaxSweeps(maxSweeps));
+        }
+    }
+
+    // Driver.doCompute from a cold plate until convergence or maxSweeps
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public SimulationResult doCompute(Plate p, Run r, Cells c) {
+        SimulationResult result = r.engine.run();
+        c.cells += result.sweeps * p.cells();
+        return result;
+    }
+}
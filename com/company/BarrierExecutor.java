@@ -0,0 +1,192 @@
+package com.company;
+
+// Runs a HeatEngine's leaves on persistent workers instead of forking the completer tree every pass
+// (SimulationConfig.setExecutor(BARRIER)). The tree is still built the same way, but only for its leaves: they're
+// dealt out once, in tree order, into one contiguous run of about equal cells per worker, and each worker runs
+// its own leaves every pass and nothing else. Between passes the workers meet at a Phaser, and whichever arrives
+// last does what the driver loop does between tree runs (see onAdvance): reduces the leaves' lowest temps and
+// residuals into the root, the same way the tree's completions would, so the convergence check and the result
+// are identical to FORK_JOIN's; then the listeners, the convergence check and setting up the next pass. So a pass
+// costs one barrier rather than a fork, a join and a reinitialize() per node, which is most of a sweep on small
+// plates run for many sweeps.
+//
+// The calling thread is worker 0, the rest are started per run. Listeners are called on whichever worker reaches
+// the barrier last, still with no leaf running.
+//
+// Each worker allocates its own leaves' temporal blocking buffers before the first pass, so that doesn't land in
+// a timed one. None of this places memory: HeatGrid's matrices are zeroed by the thread that allocated them, long
+// before any worker exists, and heap pages are reused from one array to the next, so there's no first touch to
+// arrange on the heap. What owning the same leaves every pass buys is the scheduling above; a worker's tiles
+// also stay in one core's cache for as long as the OS leaves the thread there, unlike the tree's stolen tasks.
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Phaser;
+
+final class BarrierExecutor {
+    final HeatEngine engine;
+    final HeatEngine.Driver driver;
+    final SimulationConfig config;
+    final HeatEngine.LeafNode[][] owned; // each worker's leaves
+    private final Barrier barrier;
+    private volatile Throwable failure;
+
+    BarrierExecutor(HeatEngine engine, HeatEngine.Driver driver) {
+        this.engine = engine;
+        this.driver = driver;
+        this.config = engine.config;
+        List<HeatEngine.LeafNode> leaves = new ArrayList<>(driver.nleaf);
+        driver.collectLeaves(driver.mat, leaves);
+        owned = deal(leaves, Math.min(config.effectiveParallelism(), leaves.size()));
+        barrier = new Barrier(owned.length);
+    }
+
+    // contiguous runs of leaves, cut where the running cell count passes each worker's share
+    private static HeatEngine.LeafNode[][] deal(List<HeatEngine.LeafNode> leaves, int workers) {
+        long total = 0;
+        for (HeatEngine.LeafNode l : leaves)
+            total += cells(l);
+        HeatEngine.LeafNode[][] owned = new HeatEngine.LeafNode[workers][];
+        int from = 0;
+        long sum = 0;
+        for (int w = 0; w < workers; w++) {
+            int to = from;
+            // leave at least one leaf for each worker still to come
+            while (to < leaves.size() - (workers - 1 - w)
+                    && (w == workers - 1 || to == from || sum + cells(leaves.get(to)) / 2 <= total * (w + 1) / workers))
+                sum += cells(leaves.get(to++));
+            owned[w] = leaves.subList(from, to).toArray(new HeatEngine.LeafNode[0]);
+            from = to;
+        }
+        return owned;
+    }
+
+    private static long cells(HeatEngine.LeafNode l) {
+        return (long) (l.hiRow - l.loRow + 1) * (l.hiCol - l.loCol + 1);
+    }
+
+    // runs until the config's criterion holds or maxSweeps, like Driver.doCompute
+    void run() {
+        Thread[] threads = new Thread[owned.length - 1];
+        for (int w = 1; w < owned.length; w++) {
+            final int worker = w;
+            threads[w - 1] = new Thread(() -> work(worker), "heat-barrier-" + w);
+            threads[w - 1].setDaemon(true);
+            threads[w - 1].start();
+        }
+        work(0);
+        boolean interrupted = false;
+        for (Thread t : threads) {
+            while (true) {
+                try {
+                    t.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        Throwable f = failure;
+        if (f instanceof RuntimeException)
+            throw (RuntimeException) f;
+        if (f instanceof Error)
+            throw (Error) f;
+    }
+
+    private void work(int w) {
+        try {
+            HeatEngine.LeafNode[] mine = owned[w];
+            for (HeatEngine.LeafNode l : mine)
+                l.allocateBlocks();
+            // phase 0 waits for every worker's buffers; each later phase is one pass
+            if (barrier.arriveAndAwaitAdvance() < 0)
+                return;
+            do {
+                for (HeatEngine.LeafNode l : mine)
+                    l.pass();
+            } while (barrier.arriveAndAwaitAdvance() >= 0);
+        } catch (Throwable t) {
+            // the first failure wins; terminating lets everyone else out of the barrier
+            if (failure == null)
+                failure = t;
+            barrier.forceTermination();
+        }
+    }
+
+    // onCompletion's reduction, applied bottom up in the same order so the root gets the same doubles
+    private void reduce(HeatEngine.MatrixTree m) {
+        if (m instanceof HeatEngine.LeafNode)
+            return;
+        HeatEngine.MatrixTree[] children = driver.children(m);
+        double lt = Double.MAX_VALUE, md = 0, ss = 0;
+        for (int i = 0; i < children.length; i++) {
+            HeatEngine.MatrixTree c = children[i];
+            reduce(c);
+            if (i == 0 || c.lowestTemp < lt)
+                lt = c.lowestTemp;
+            md = i == 0 ? c.maxDelta : Math.max(md, c.maxDelta);
+            ss = i == 0 ? c.sumSquares : ss + c.sumSquares;
+        }
+        m.lowestTemp = lt;
+        m.maxDelta = md;
+        m.sumSquares = ss;
+    }
+
+    // the driver's loop, one step per barrier
+    private final class Barrier extends Phaser {
+        SolverMetrics.RunEvent runEvent;
+        SolverMetrics.SweepEvent sweepEvent;
+        final int passes = driver.passes();
+        int pass;
+        long sinceCheck, passStart;
+
+        Barrier(int workers) {
+            super(workers);
+        }
+
+        // Runs on the last worker to arrive, while the others wait; returning true ends the run.
+        @Override
+        protected boolean onAdvance(int phase, int parties) {
+            long now = System.nanoTime();
+            if (phase == 0) {
+                runEvent = SolverMetrics.runStarted();
+                engine.metrics.loopStarted(null);
+                if (engine.sweeps >= config.maxSweeps)
+                    return finish(false);
+                return next(now);
+            }
+            engine.metrics.treeRan(now - passStart, 0);
+            if (++pass < passes) {
+                driver.startPass(pass);
+                passStart = System.nanoTime();
+                return false;
+            }
+            HeatEngine.MatrixTree m = driver.mat;
+            reduce(m);
+            driver.finishIteration(m, sweepEvent);
+            if (engine.sweeps >= config.maxSweeps)
+                return finish(false);
+            if (!config.ignoreConvergence && ++sinceCheck >= config.checkInterval) {
+                sinceCheck = 0;
+                if (engine.converged(m))
+                    return finish(true);
+            }
+            return next(System.nanoTime());
+        }
+
+        private boolean next(long now) {
+            sweepEvent = SolverMetrics.sweepStarted();
+            pass = 0;
+            driver.startPass(0);
+            passStart = now;
+            return false;
+        }
+
+        private boolean finish(boolean converged) {
+            engine.metrics.loopEnded(runEvent, converged);
+            return true;
+        }
+    }
+}
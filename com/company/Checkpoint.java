@@ -0,0 +1,351 @@
+package com.company;
+
+// Periodic snapshots of a running HeatEngine, so a crash or redeploy in the middle of an hours long run only
+// loses the sweeps since the last checkpoint. Every interval sweeps the driver copies the matrices into spare
+// arrays (the only work done on the sweep loop), and a background thread writes them to a memory-mapped file
+// next to the target and renames it over the old checkpoint once it's forced to disk, so there always is one
+// complete checkpoint on disk. If the writer is still busy with the previous snapshot when the next one is due,
+// that one is skipped rather than holding up the sweeps.
+//
+// The copy is still O(cells) on the driver thread, so it's split over two sweeps: a listener's current matrix
+// isn't touched until the sweep after next starts, so after sweep s + 1 the plate is the matrix that sweep wrote
+// plus the one sweep s wrote, untouched since. Sweep s copies its matrix and sweep s + 1 its own, and the
+// snapshot is of sweep s + 1; each stalls the loop for half a plate. Two modes can't do that and stall for the
+// whole copy at once: a temporal block's write-back rewrites both matrices, and in-place Gauss-Seidel has just
+// the one (which is all that's copied). A run that ends on the first half of a copy leaves the previous
+// checkpoint in place.
+//
+// Both matrices are saved, not just the latest: cells at convergenceTemp are skipped by the sweeps, so the
+// other matrix holds values the next sweeps still read. With the sweep count restored, the leaves start on the
+// same parity and the restarted run continues exactly as the original would have.
+//
+// The header also keeps everything that decides the update rule, not just the plate: the stencil and its
+// weights, the convergence criterion (residual criteria carry frozen cells into the other matrix, see
+// SimulationConfig.carriesFrozenCells), the temporal block and a hash of the material map. restore refuses a
+// config that would sweep the saved matrices with a different rule, since the run would quietly continue as
+// some other simulation.
+//
+// File layout, little endian: a 256 byte header (see write), the sources as (int x, int y, double temp), then
+// A and B as width * height doubles each, column-major like HeatGrid.
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class Checkpoint implements HeatEngine.SweepListener, AutoCloseable {
+    static final long MAGIC = 0x54504B4354414548L; // "HEATCKPT" read as a little endian long
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 256;
+    // where the update rule starts in the header, see putRule
+    static final int RULE_OFFSET = 128;
+    // stencil kinds in the header
+    static final int ORIGINAL = 0, ALLOY = 1, FOUR_POINT = 2, ANISOTROPIC = 3, OTHER = 4;
+    // doubles per mapping, keeps each MappedByteBuffer well under the 2 GB limit
+    static final int CHUNK = 1 << 26;
+
+    final HeatEngine engine;
+    final Path path, tmp;
+    final long interval;
+    private final double[] snapA, snapB;
+    private final List<SimulationConfig.HeatSource> sources;
+    private final ExecutorService writer;
+    private final AtomicBoolean writing = new AtomicBoolean();
+    private volatile IOException failure;
+
+    // only touched by the driver thread
+    private long lastSweep;
+    private long pending = -1; // the sweep whose matrix completes the snapshot being copied, -1 for none
+    long taken, skipped;
+
+    // registers itself with engine; writes path every interval sweeps from now on
+    public Checkpoint(HeatEngine engine, Path path, long interval) {
+        if (interval < 1)
+            throw new IllegalArgumentException("checkpoint interval must be at least 1 sweep");
+        this.engine = engine;
+        this.path = path.toAbsolutePath();
+        this.tmp = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+        this.interval = interval;
+        int cells = engine.width * engine.height;
+        snapA = new double[cells];
+        // in place, both halves of the file hold the one matrix
+        snapB = engine.grid.A == engine.grid.B ? snapA : new double[cells];
+        sources = engine.config.effectiveSources();
+        lastSweep = engine.sweeps;
+        writer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "checkpoint-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        engine.addSweepListener(this);
+    }
+
+    @Override
+    public void sweepCompleted(HeatGrid grid, double[] current, long sweep) {
+        if (sweep == pending) {
+            // second half, the first one's matrix hasn't been written since
+            pending = -1;
+            copy(grid, current);
+            hand(sweep);
+            return;
+        }
+        if (sweep - lastSweep < interval)
+            return;
+        if (!writing.compareAndSet(false, true)) {
+            skipped++;
+            return;
+        }
+        lastSweep = sweep;
+        if (grid.keepsCurrent) {
+            copy(grid, current);
+            pending = sweep + 1;
+            return;
+        }
+        // no leaf runs between sweeps, so both matrices are consistent right now
+        copy(grid, grid.A);
+        if (grid.B != grid.A)
+            copy(grid, grid.B);
+        hand(sweep);
+    }
+
+    private void copy(HeatGrid grid, double[] m) {
+        double[] snap = m == grid.A ? snapA : snapB;
+        System.arraycopy(m, 0, snap, 0, snap.length);
+    }
+
+    // gives the writer the snapshot of the plate after sweep
+    private void hand(long sweep) {
+        taken++;
+        double firstResidual = engine.firstResidual;
+        writer.execute(() -> {
+            try {
+                write(sweep, firstResidual);
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                writing.set(false);
+            }
+        });
+    }
+
+    private void write(long sweep, double firstResidual) throws IOException {
+        SimulationConfig c = engine.config;
+        long dataOffset = HEADER_BYTES + 16L * sources.size();
+        long cells = snapA.length;
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer head = ch.map(FileChannel.MapMode.READ_WRITE, 0, dataOffset);
+            head.order(ByteOrder.LITTLE_ENDIAN);
+            head.putLong(MAGIC).putInt(VERSION)
+                    .putInt(c.width).putInt(c.height).putInt(c.solver.ordinal())
+                    .putLong(sweep)
+                    .putFloat(c.redhottemp).putInt(sources.size())
+                    .putDouble(c.sTemp).putDouble(c.tTemp)
+                    .putDouble(c.aConstant).putDouble(c.bConstant).putDouble(c.cConstant)
+                    .putDouble(c.aRatio).putDouble(c.bRatio).putDouble(c.cRatio)
+                    .putDouble(c.initialTemp).putDouble(c.omega).putDouble(firstResidual);
+            putRule(head, c);
+            head.position(HEADER_BYTES);
+            for (SimulationConfig.HeatSource s : sources)
+                head.putInt(s.x).putInt(s.y).putDouble(s.temp);
+            head.force();
+            putDoubles(ch, dataOffset, snapA);
+            putDoubles(ch, dataOffset + 8 * cells, snapB);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // From RULE_OFFSET: the stencil's kind, whether an alloy clamps and six weights (an alloy's constants and
+    // ratios, or kx, ky, kd), then the criterion, its tolerance and whether it's relative, the temporal block,
+    // whether frozen cells are carried and the material map's hash (0 for none).
+    private static void putRule(ByteBuffer head, SimulationConfig c) {
+        StencilKernel k = c.stencil;
+        int kind = k == null ? ORIGINAL : k instanceof StencilKernel.Alloy ? ALLOY
+                : k instanceof StencilKernel.FourPoint ? FOUR_POINT : k instanceof StencilKernel.Anisotropic ? ANISOTROPIC
+                : OTHER;
+        double[] w = new double[6];
+        boolean clamp = kind == ORIGINAL;
+        if (kind == ALLOY) {
+            StencilKernel.Alloy a = (StencilKernel.Alloy) k;
+            w = new double[] { a.aConstant, a.bConstant, a.cConstant, a.aRatio, a.bRatio, a.cRatio };
+            clamp = a.clamp;
+        } else if (kind == ANISOTROPIC) {
+            StencilKernel.Anisotropic a = (StencilKernel.Anisotropic) k;
+            w[0] = a.kx;
+            w[1] = a.ky;
+            w[2] = a.kd;
+        }
+        head.position(RULE_OFFSET);
+        head.putInt(kind).putInt(clamp ? 1 : 0);
+        for (double d : w)
+            head.putDouble(d);
+        head.putInt(c.convergence.ordinal()).putInt(c.relativeTolerance ? 1 : 0).putDouble(c.tolerance)
+                .putInt(c.temporalBlock).putInt(c.carriesFrozenCells() ? 1 : 0)
+                .putLong(c.materials != null ? c.materials.fingerprint() : 0);
+    }
+
+    // what about config's update rule differs from the one in head, or null if nothing does. The criterion
+    // only counts for whether it carries frozen cells, the tolerance not at all.
+    private static String ruleMismatch(ByteBuffer head, SimulationConfig config) {
+        ByteBuffer mine = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        putRule(mine, config);
+        int at = RULE_OFFSET;
+        for (int i = 0; i < 56; i++) {
+            if (head.get(at + i) != mine.get(at + i))
+                return "a different stencil";
+        }
+        if (head.getFloat(32) != config.redhottemp)
+            return "redhot " + head.getFloat(32) + ", not " + config.redhottemp;
+        double[] alloy = { config.aConstant, config.bConstant, config.cConstant, config.aRatio, config.bRatio, config.cRatio };
+        for (int i = 0; i < alloy.length; i++) {
+            if (Double.doubleToLongBits(head.getDouble(56 + 8 * i)) != Double.doubleToLongBits(alloy[i]))
+                return "different metal constants or ratios";
+        }
+        if (head.getInt(at + 76) != mine.getInt(at + 76))
+            return head.getInt(at + 76) == 1 ? "a residual criterion, which carries frozen cells"
+                    : "the lowest temp criterion, which doesn't carry frozen cells";
+        if (head.getInt(at + 72) != mine.getInt(at + 72))
+            return "temporal block " + head.getInt(at + 72) + ", not " + mine.getInt(at + 72);
+        if (head.getLong(at + 80) != mine.getLong(at + 80))
+            return head.getLong(at + 80) == 0 ? "no material map" : "a different material map";
+        return null;
+    }
+
+    private static void putDoubles(FileChannel ch, long offset, double[] src) throws IOException {
+        for (int i = 0; i < src.length; i += CHUNK) {
+            int n = Math.min(CHUNK, src.length - i);
+            MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_WRITE, offset + 8L * i, 8L * n);
+            m.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().put(src, i, n);
+            m.force();
+        }
+    }
+
+    private static void getDoubles(FileChannel ch, long offset, double[] dst) throws IOException {
+        for (int i = 0; i < dst.length; i += CHUNK) {
+            int n = Math.min(CHUNK, dst.length - i);
+            MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_ONLY, offset + 8L * i, 8L * n);
+            m.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(dst, i, n);
+        }
+    }
+
+    // waits for a checkpoint still being written; rethrows the writer's last failure
+    @Override
+    public void close() throws IOException {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    private static ByteBuffer header(FileChannel ch, Path path) throws IOException {
+        if (ch.size() < HEADER_BYTES)
+            throw new IOException(path + " is too short for a checkpoint");
+        ByteBuffer head = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        if (head.getLong(0) != MAGIC)
+            throw new IOException(path + " is not a checkpoint");
+        if (head.getInt(8) != VERSION)
+            throw new IOException(path + " is checkpoint version " + head.getInt(8) + ", expected " + VERSION);
+        return head;
+    }
+
+    // The plate, alloy, sources and update rule a checkpoint was taken with: the stencil, the criterion and
+    // tolerance, the temporal block. Run parameters (threads, granularity, check interval, max sweeps...) are
+    // left at their defaults for the caller to set before restore; the material map isn't kept, only its hash,
+    // so a plate that had one needs the same map set again.
+    public static SimulationConfig readConfig(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer head = header(ch, path);
+            head.position(12);
+            int width = head.getInt(), height = head.getInt();
+            SimulationConfig.Solver solver = SimulationConfig.Solver.values()[head.getInt()];
+            head.getLong(); // sweeps
+            float redhottemp = head.getFloat();
+            int sourceCount = head.getInt();
+            SimulationConfig c = new SimulationConfig(width, height, redhottemp)
+                    .setCornerTemps(head.getDouble(), head.getDouble())
+                    .setMetalConstants(head.getDouble(), head.getDouble(), head.getDouble())
+                    .setMetalRatios(head.getDouble(), head.getDouble(), head.getDouble())
+                    .setInitialTemp(head.getDouble());
+            c.setSolver(solver, head.getDouble());
+            head.position(RULE_OFFSET);
+            int kind = head.getInt();
+            boolean clamp = head.getInt() == 1;
+            double[] w = new double[6];
+            for (int i = 0; i < w.length; i++)
+                w[i] = head.getDouble();
+            if (kind == ALLOY)
+                c.setStencil(new StencilKernel.Alloy(w[0], w[1], w[2], w[3], w[4], w[5], clamp));
+            else if (kind == FOUR_POINT)
+                c.setStencil(new StencilKernel.FourPoint());
+            else if (kind == ANISOTROPIC)
+                c.setStencil(new StencilKernel.Anisotropic(w[0], w[1], w[2]));
+            else if (kind == OTHER)
+                throw new IOException(path + " was taken with a stencil it can't describe, build the config by hand");
+            SimulationConfig.Convergence convergence = SimulationConfig.Convergence.values()[head.getInt()];
+            boolean relative = head.getInt() == 1;
+            c.setConvergence(convergence, head.getDouble(), relative, c.checkInterval);
+            c.setTemporalBlock(head.getInt());
+            ByteBuffer src = ch.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, 16L * sourceCount)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < sourceCount; i++)
+                c.addSource(src.getInt(), src.getInt(), src.getDouble());
+            return c;
+        }
+    }
+
+    // A HeatEngine for config (normally from readConfig) picking up where the checkpoint left off: both
+    // matrices and the sweep count are restored, so run() continues from the saved sweep. Fails if config
+    // would update the cells by a different rule than the one the matrices were swept with.
+    public static HeatEngine restore(Path path, SimulationConfig config) throws IOException {
+        HeatEngine engine = new HeatEngine(config);
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer head = header(ch, path);
+            int width = head.getInt(12), height = head.getInt(16);
+            if (width != config.width || height != config.height)
+                throw new IOException(path + " holds a " + width + "x" + height + " plate, not "
+                        + config.width + "x" + config.height);
+            String mismatch = ruleMismatch(head, config);
+            if (mismatch != null)
+                throw new IOException(path + " was taken with " + mismatch);
+            int sourceCount = head.getInt(36);
+            long dataOffset = HEADER_BYTES + 16L * sourceCount;
+            long cells = (long) width * height;
+            if (ch.size() < dataOffset + 16 * cells)
+                throw new IOException(path + " is truncated");
+            long sweeps = head.getLong(24);
+            HeatGrid grid = engine.grid;
+            if (grid.A == grid.B) {
+                // in-place solvers keep one matrix, it gets whichever the last sweep wrote
+                getDoubles(ch, dataOffset + ((sweeps & 1) == 1 ? 8 * cells : 0), grid.A);
+            } else {
+                getDoubles(ch, dataOffset, grid.A);
+                getDoubles(ch, dataOffset + 8 * cells, grid.B);
+            }
+            engine.sweeps = sweeps;
+            engine.firstResidual = head.getDouble(120);
+        }
+        return engine;
+    }
+
+    public long getTaken() {
+        return taken;
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+}
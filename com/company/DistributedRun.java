@@ -0,0 +1,176 @@
+package com.company;
+
+// Runs one plate across several JVMs, for plates that outgrow one machine's cores or memory. The plate is cut
+// into column slabs, one per SlabWorker process, and this side coordinates: it hands out the slabs, wires every
+// worker to its right neighbor for the halo exchange, reduces the workers' convergence numbers whenever they
+// check, and puts the final field back together. It doesn't sweep anything itself.
+//
+// By default the workers are started here as child JVMs on this machine, with this JVM's classpath and
+// options. With listen(port) it waits for that many workers started by hand instead (see SlabWorker).
+//
+// Only plain Jacobi sweeps are supported: Gauss-Seidel and temporal blocking would need an exchange per color
+// or wider halos, and activity tracking would need the neighbors' activity as well.
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class DistributedRun {
+    // how long to wait for the workers to connect
+    static final int CONNECT_TIMEOUT_MILLIS = 60_000;
+
+    final SimulationConfig config;
+    final int ranks;
+    int listenPort = -1; // -1: start the workers here
+
+    public DistributedRun(SimulationConfig config, int ranks) {
+        config.validate();
+        if (ranks < 1 || ranks > config.width)
+            throw new IllegalArgumentException("need between 1 and " + config.width + " workers, got " + ranks);
+        if (config.solver != SimulationConfig.Solver.JACOBI || config.temporalBlock > 1 || config.trackActivity())
+            throw new IllegalArgumentException("distributed runs only support plain Jacobi sweeps");
+        this.config = config;
+        this.ranks = ranks;
+    }
+
+    // wait on port for workers started elsewhere instead of starting them
+    public DistributedRun listen(int port) {
+        this.listenPort = port;
+        return this;
+    }
+
+    public SimulationResult run() throws IOException {
+        List<Process> processes = new ArrayList<>();
+        List<Socket> sockets = new ArrayList<>();
+        try (ServerSocket server = listenPort >= 0 ? new ServerSocket(listenPort)
+                : new ServerSocket(0, ranks, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+            if (listenPort < 0) {
+                for (int r = 0; r < ranks; r++)
+                    processes.add(spawn(server.getLocalPort()));
+            } else {
+                System.out.println("waiting for " + ranks + " workers on port " + server.getLocalPort());
+            }
+
+            ObjectOutputStream[] out = new ObjectOutputStream[ranks];
+            ObjectInputStream[] in = new ObjectInputStream[ranks];
+            int[] haloPorts = new int[ranks];
+            for (int r = 0; r < ranks; r++) {
+                Socket s = server.accept();
+                sockets.add(s);
+                s.setTcpNoDelay(true);
+                out[r] = new ObjectOutputStream(s.getOutputStream());
+                out[r].flush();
+                in[r] = new ObjectInputStream(s.getInputStream());
+                haloPorts[r] = in[r].readInt();
+            }
+            // workers get ranks in the order they connected
+            for (int r = 0; r < ranks; r++) {
+                SimulationConfig slab = config.slab(from(r), from(r + 1));
+                if (listenPort < 0 && config.parallelism == 0)
+                    slab.setParallelism(Math.max(1, Runtime.getRuntime().availableProcessors() / ranks));
+                out[r].writeInt(r);
+                out[r].writeObject(slab);
+                out[r].writeUTF(r + 1 < ranks ? sockets.get(r + 1).getInetAddress().getHostAddress() : "");
+                out[r].writeInt(r + 1 < ranks ? haloPorts[r + 1] : -1);
+                out[r].flush();
+            }
+            long start = System.nanoTime();
+            SimulationResult result = coordinate(in, out);
+            result = new SimulationResult(result.width, result.height, result.field, result.sweeps,
+                    System.nanoTime() - start, result.lowestTemp, result.residual, result.converged,
+                    result.leaves, result.granularity);
+            for (Process p : processes)
+                p.waitFor(10, TimeUnit.SECONDS);
+            return result;
+        } catch (ClassNotFoundException e) {
+            throw new IOException("a worker sent something unexpected", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for the workers", e);
+        } finally {
+            for (Socket s : sockets)
+                s.close();
+            for (Process p : processes)
+                p.destroy();
+        }
+    }
+
+    // first plate column of rank r's slab
+    int from(int r) {
+        return (int) ((long) config.width * r / ranks);
+    }
+
+    // answers the workers' reductions until they are all done, then collects their columns
+    private SimulationResult coordinate(ObjectInputStream[] in, ObjectOutputStream[] out)
+            throws IOException, ClassNotFoundException {
+        while (true) {
+            byte tag = in[0].readByte();
+            for (int r = 1; r < ranks; r++) {
+                if (in[r].readByte() != tag)
+                    throw new IOException("worker " + r + " is out of step with worker 0");
+            }
+            if (tag == SlabWorker.DONE)
+                return collect(in);
+            double lowest = Double.MAX_VALUE, maxDelta = 0, sumSquares = 0;
+            for (ObjectInputStream i : in) {
+                lowest = Math.min(lowest, i.readDouble());
+                maxDelta = Math.max(maxDelta, i.readDouble());
+                sumSquares += i.readDouble();
+            }
+            for (ObjectOutputStream o : out) {
+                o.writeDouble(lowest);
+                o.writeDouble(maxDelta);
+                o.writeDouble(sumSquares);
+                o.flush();
+            }
+        }
+    }
+
+    // The workers' last sweep was reduced, so they all report the plate's numbers; only the leaves differ.
+    private SimulationResult collect(ObjectInputStream[] in) throws IOException, ClassNotFoundException {
+        int height = config.height;
+        double[] field = new double[config.width * height];
+        long sweeps = 0;
+        double lowest = 0, residual = 0;
+        boolean converged = false;
+        int leaves = 0, granularity = 0;
+        for (int r = 0; r < ranks; r++) {
+            sweeps = in[r].readLong();
+            lowest = in[r].readDouble();
+            residual = in[r].readDouble();
+            converged = in[r].readBoolean();
+            leaves += in[r].readInt();
+            granularity = in[r].readInt();
+            double[] columns = (double[]) in[r].readObject();
+            System.arraycopy(columns, 0, field, from(r) * height, columns.length);
+        }
+        return new SimulationResult(config.width, height, field, sweeps, 0, lowest, residual, converged,
+                leaves, granularity);
+    }
+
+    // a worker JVM with this one's classpath and options, connecting back to port
+    private static Process spawn(int port) throws IOException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        cmd.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(SlabWorker.class.getName());
+        cmd.add(InetAddress.getLoopbackAddress().getHostAddress());
+        cmd.add(Integer.toString(port));
+        return new ProcessBuilder(cmd).inheritIO().start();
+    }
+
+    public int getRanks() {
+        return ranks;
+    }
+}
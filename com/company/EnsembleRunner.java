@@ -0,0 +1,265 @@
+package com.company;
+
+// Runs many independent plates on one ForkJoinPool, for mapping out a design space: the same plate over a range
+// of redhot temps, corner temps, metal constants and so on.
+//
+// Small plates gain nothing from being split over the pool, every sweep would cost more in forks and joins
+// than in cells. So plates up to packCells cells are packed instead: each worker takes the next small plate,
+// runs the whole thing as a single leaf and moves on, and the pool runs as many plates at a time as it has
+// workers. The bigger plates come after, one at a time, each with a tree cut for the whole pool like a plain
+// HeatEngine.run() would get. Within each group the biggest plates go first, so the last ones to finish are
+// the quick ones.
+//
+// Results are handed to a Listener as soon as each run finishes, one call at a time. From the command line:
+//
+//   java -cp out com.company.EnsembleRunner --size 120x70 --redhot "400;500;600" --corners "1000,400;900,300"
+//
+// runs every combination of the lists (separated by ';') and reports runs/hour; --sequential runs the same
+// plates one after another through HeatEngine.run() for comparison.
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EnsembleRunner {
+    // plates up to this many cells are packed, their two matrices still fit in a core's L2
+    static final int PACK_CELLS = 1 << 16;
+
+    final ForkJoinPool pool;
+    final List<Run> runs = new ArrayList<>();
+    int packCells = PACK_CELLS;
+
+    public interface Listener {
+        // called once per run as it finishes, never from two threads at once
+        void finished(Outcome outcome);
+    }
+
+    // one finished run: its result, or what it threw
+    public static class Outcome {
+        final String name;
+        final SimulationConfig config;
+        final SimulationResult result;
+        final RuntimeException failure;
+        final boolean packed; // ran as a single leaf next to other plates, rather than on the whole pool
+
+        Outcome(String name, SimulationConfig config, SimulationResult result, RuntimeException failure, boolean packed) {
+            this.name = name;
+            this.config = config;
+            this.result = result;
+            this.failure = failure;
+            this.packed = packed;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public SimulationResult getResult() {
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + (failure != null ? "failed, " + failure : result) + (packed ? " [packed]" : "");
+        }
+    }
+
+    public static class Summary {
+        final int runs, failed, packed;
+        final long elapsedNanos;
+
+        Summary(int runs, int failed, int packed, long elapsedNanos) {
+            this.runs = runs;
+            this.failed = failed;
+            this.packed = packed;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public double runsPerHour() {
+            return elapsedNanos == 0 ? 0 : runs * 3600e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d runs (%d packed, %d failed) in %.3f s, %.0f runs/hour", runs, packed, failed,
+                    elapsedNanos / 1e9, runsPerHour());
+        }
+    }
+
+    static class Run {
+        final String name;
+        final SimulationConfig config;
+
+        Run(String name, SimulationConfig config) {
+            this.name = name;
+            this.config = config;
+        }
+
+        long cells() {
+            return (long) config.width * config.height;
+        }
+    }
+
+    // threads 0 for one worker per core
+    public EnsembleRunner(int threads) {
+        pool = new ForkJoinPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+    }
+
+    // Queues a plate. Its parallelism is overridden, the pool decides that; everything else runs as configured,
+    // as long as HeatEngine runs it (no multigrid, off-heap or single precision).
+    public EnsembleRunner add(String name, SimulationConfig config) {
+        config.validate();
+        if (config.solver == SimulationConfig.Solver.MULTIGRID || config.storage != SimulationConfig.Storage.HEAP
+                || config.precision != SimulationConfig.Precision.DOUBLE)
+            throw new IllegalArgumentException("ensembles only run double precision plates on the heap, without multigrid");
+        runs.add(new Run(name, config));
+        return this;
+    }
+
+    // plates up to cells cells are packed, the rest get the whole pool
+    public EnsembleRunner setPackCells(int cells) {
+        this.packCells = cells;
+        return this;
+    }
+
+    // runs everything queued so far, telling listener about each run as it finishes; the pool stays up for
+    // another batch until shutdown
+    public Summary run(Listener listener) {
+        List<Run> small = new ArrayList<>(), large = new ArrayList<>();
+        for (Run r : runs)
+            (r.cells() <= packCells ? small : large).add(r);
+        runs.clear();
+        small.sort(Comparator.comparingLong(Run::cells).reversed());
+        large.sort(Comparator.comparingLong(Run::cells).reversed());
+        int[] failed = new int[1];
+        Listener serial = outcome -> {
+            synchronized (failed) {
+                if (outcome.failure != null)
+                    failed[0]++;
+                listener.finished(outcome);
+            }
+        };
+
+        long start = System.nanoTime();
+        // one lane per worker, each taking the next small plate until there are none left
+        AtomicInteger next = new AtomicInteger();
+        List<ForkJoinTask<?>> lanes = new ArrayList<>();
+        for (int w = 0; w < Math.min(pool.getParallelism(), small.size()); w++) {
+            lanes.add(pool.submit(() -> {
+                for (int i; (i = next.getAndIncrement()) < small.size(); )
+                    serial.finished(execute(small.get(i), true));
+            }));
+        }
+        for (ForkJoinTask<?> lane : lanes)
+            lane.join();
+        for (Run r : large)
+            serial.finished(pool.invoke(ForkJoinTask.adapt(() -> execute(r, false))));
+        return new Summary(small.size() + large.size(), failed[0], small.size(), System.nanoTime() - start);
+    }
+
+    // Runs a plate in the calling worker. A packed plate is built as one leaf, so its driver never forks;
+    // a large one is cut for the whole pool and its leaves are forked into it.
+    private Outcome execute(Run run, boolean packed) {
+        SimulationConfig c = run.config.copy().setParallelism(packed ? 1 : pool.getParallelism());
+        try {
+            return new Outcome(run.name, run.config, new HeatEngine(c).runInPool(), null, packed);
+        } catch (RuntimeException e) {
+            return new Outcome(run.name, run.config, null, e, packed);
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    public static void main(String[] args) {
+        String sizes = "192x108", redhots = "500", corners = null, constants = null, ratios = null;
+        int threads = 0;
+        long maxSweeps = Long.MAX_VALUE;
+        int packCells = PACK_CELLS;
+        boolean sequential = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--size": sizes = args[++i]; break;
+                case "--redhot": redhots = args[++i]; break;
+                case "--corners": corners = args[++i]; break;
+                case "--constants": constants = args[++i]; break;
+                case "--ratios": ratios = args[++i]; break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--max-sweeps": maxSweeps = Long.parseLong(args[++i]); break;
+                case "--pack-cells": packCells = Integer.parseInt(args[++i]); break;
+                case "--sequential": sequential = true; break;
+                default:
+                    System.err.println("unknown option " + args[i]);
+                    System.err.println("usage: EnsembleRunner [--size WxH;...] [--redhot T;...] [--corners S,T;...]\n"
+                            + "                      [--constants A,B,C;...] [--ratios A,B,C;...] [--threads N]\n"
+                            + "                      [--max-sweeps N] [--pack-cells CELLS] [--sequential]");
+                    System.exit(2);
+            }
+        }
+
+        // every combination of the lists
+        List<String> names = new ArrayList<>();
+        List<SimulationConfig> configs = new ArrayList<>();
+        for (String size : sizes.split(";")) {
+            String[] wh = size.split("x");
+            for (String redhot : redhots.split(";")) {
+                for (String corner : options(corners)) {
+                    for (String constant : options(constants)) {
+                        for (String ratio : options(ratios)) {
+                            SimulationConfig c = new SimulationConfig(Integer.parseInt(wh[0].trim()),
+                                    Integer.parseInt(wh[1].trim()), Float.parseFloat(redhot)).setMaxSweeps(maxSweeps);
+                            String name = size + " redhot " + redhot;
+                            if (corner != null) {
+                                double[] v = HeatCli.doubles(corner, 2);
+                                c.setCornerTemps(v[0], v[1]);
+                                name += " corners " + corner;
+                            }
+                            if (constant != null) {
+                                double[] v = HeatCli.doubles(constant, 3);
+                                c.setMetalConstants(v[0], v[1], v[2]);
+                                name += " constants " + constant;
+                            }
+                            if (ratio != null) {
+                                double[] v = HeatCli.doubles(ratio, 3);
+                                c.setMetalRatios(v[0], v[1], v[2]);
+                                name += " ratios " + ratio;
+                            }
+                            names.add(name);
+                            configs.add(c);
+                        }
+                    }
+                }
+            }
+        }
+
+        if (sequential) {
+            // what a loop over HeatEngine.run() gets, each run on its own pool
+            long start = System.nanoTime();
+            for (int i = 0; i < configs.size(); i++) {
+                SimulationConfig c = configs.get(i).setParallelism(threads);
+                System.out.println(names.get(i) + ": " + new HeatEngine(c).run());
+            }
+            Summary one = new Summary(configs.size(), 0, 0, System.nanoTime() - start);
+            System.out.printf("%d runs one at a time in %.3f s, %.0f runs/hour%n", one.runs, one.elapsedNanos / 1e9,
+                    one.runsPerHour());
+            return;
+        }
+        EnsembleRunner ensemble = new EnsembleRunner(threads).setPackCells(packCells);
+        for (int i = 0; i < configs.size(); i++)
+            ensemble.add(names.get(i), configs.get(i));
+        try {
+            System.out.println(ensemble.run(System.out::println));
+        } finally {
+            ensemble.shutdown();
+        }
+    }
+
+    // a ';' list, or a single null for "leave the default"
+    private static String[] options(String list) {
+        return list == null ? new String[] { null } : list.split(";");
+    }
+}
@@ -0,0 +1,260 @@
+package com.company;
+
+// Plain Jacobi sweeps in single precision. The plate is two float[]s, half the memory of a HeatGrid, and every
+// sweep moves half the bytes, which is most of what a sweep costs once the plate is out of cache. The update is
+// HeatEngine's, done in float: the temps converge to a few hundred degrees, where a float still resolves a few
+// hundredths of a degree, and the display only ever drew floats. Whether that's close enough for a given plate is
+// what HeatCli's --compare is for: it reruns the plate in double and reports the largest difference, and with
+// --compare-tolerance fails the run if that's too large. Expect it to be: float rounding is tiny (a few 1e-5
+// degrees a sweep), but a cell that crosses convergenceTemp a sweep earlier or later freezes at a different
+// value, so the default plate ends up degrees apart from the double run while the warm-up is well within 0.01.
+// Likewise a residual tolerance finer than what floats resolve at these temps may never be met, so give
+// residual criteria a maxSweeps.
+//
+// The columns are split over the pool by a tree of Columns built once and reset between sweeps, like HeatEngine's
+// MatrixTree; the rest of HeatEngine's machinery (adaptive trees, temporal blocking, activity tracking,
+// listeners) only exists for doubles.
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+final class FloatEngine implements HeatEngine.Backend {
+    final SimulationConfig config;
+    final int width, height;
+    final float aConstant, bConstant, cConstant, aRatio, bRatio, cRatio;
+    final float convergenceTemp;
+    final double targetTemp;
+    final boolean carryFrozen; // see SimulationConfig.carriesFrozenCells
+    final float[] A, B;
+    float[] read, write; // this sweep's pair, set by the driver before it invokes the tree
+    final long[] sources; // one bit per cell, like HeatGrid
+    final int leafColumns;
+    long sweeps;
+    double firstResidual = -1;
+
+    FloatEngine(SimulationConfig config) {
+        config.validate();
+        this.config = config;
+        width = config.width;
+        height = config.height;
+        aConstant = (float) config.aConstant;
+        bConstant = (float) config.bConstant;
+        cConstant = (float) config.cConstant;
+        aRatio = (float) config.aRatio;
+        bRatio = (float) config.bRatio;
+        cRatio = (float) config.cRatio;
+        // same as HeatEngine
+        convergenceTemp = (float) Math.min(config.redhottemp, config.hottestSource());
+        carryFrozen = config.carriesFrozenCells();
+        double cornerHeatAvg = config.averageSource();
+        targetTemp = config.redhottemp < cornerHeatAvg ? config.redhottemp * .90 : cornerHeatAvg;
+
+        long size = (long) width * height;
+        if (size > SimulationConfig.MAX_HEAP_CELLS)
+            throw new IllegalArgumentException(width + "x" + height + " is " + size + " cells, more than an array holds ("
+                    + SimulationConfig.MAX_HEAP_CELLS + "), use off-heap storage");
+        int cells = (int) size;
+        A = new float[cells];
+        B = new float[cells];
+        sources = new long[(cells + 63) >>> 6];
+        Arrays.fill(A, (float) config.initialTemp);
+        Arrays.fill(B, (float) config.initialTemp);
+        for (SimulationConfig.HeatSource s : config.effectiveSources()) {
+            int idx = s.x * height + s.y;
+            A[idx] = B[idx] = (float) s.temp;
+            sources[idx >>> 6] |= 1L << idx;
+        }
+        int leafCells = config.granularity > 0 ? config.granularity : Math.max(1, cells / config.effectiveParallelism());
+        leafColumns = Math.max(1, leafCells / height);
+    }
+
+    @Override
+    public SimulationResult run() {
+        ForkJoinPool pool = config.parallelism > 0 ? new ForkJoinPool(config.parallelism) : ForkJoinPool.commonPool();
+        try {
+            long start = System.nanoTime();
+            Columns tree = new Columns(0, width), last = null;
+            long sinceCheck = 0;
+            while (sweeps < config.maxSweeps) {
+                boolean even = (sweeps & 1) == 0;
+                read = even ? A : B;
+                write = even ? B : A;
+                pool.invoke(tree);
+                tree.reinitialize();
+                last = tree;
+                sweeps++;
+                if (firstResidual < 0)
+                    firstResidual = residual(last);
+                if (!config.ignoreConvergence && ++sinceCheck >= config.checkInterval) {
+                    sinceCheck = 0;
+                    if (converged(last))
+                        break;
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            float[] latest = (sweeps & 1) == 1 ? B : A;
+            double[] field = new double[latest.length];
+            for (int i = 0; i < field.length; i++)
+                field[i] = latest[i];
+            return new SimulationResult(width, height, field, sweeps, elapsed,
+                    last != null ? last.lowestTemp : convergenceTemp, last != null ? residual(last) : 0,
+                    last != null && converged(last), (width + leafColumns - 1) / leafColumns, leafColumns * height);
+        } finally {
+            if (pool != ForkJoinPool.commonPool())
+                pool.shutdown();
+        }
+    }
+
+    double residual(Columns c) {
+        return config.convergence == SimulationConfig.Convergence.L2 ? Math.sqrt(c.sumSquares) : c.maxDelta;
+    }
+
+    boolean converged(Columns c) {
+        if (config.convergence == SimulationConfig.Convergence.LOWEST_TEMP)
+            return c.lowestTemp >= targetTemp;
+        double tolerance = config.relativeTolerance ? config.tolerance * firstResidual : config.tolerance;
+        return residual(c) <= tolerance;
+    }
+
+    final boolean isSource(int idx) {
+        return (sources[idx >>> 6] & (1L << idx)) != 0;
+    }
+
+    // columns lo..hi-1, split until a leaf has leafColumns columns. The tree is built once; each sweep reads
+    // read and writes write, and a node resets its children before running them again.
+    final class Columns extends RecursiveAction {
+        final int lo, hi;
+        final Columns left, right; // null in a leaf
+        final float[] neighbors; // a leaf's scratch for edgeTemp
+        float[] a, b; // read and write, for the sweep in progress
+        float lowestTemp;
+        double maxDelta, sumSquares; // residuals add up over the whole plate, so they're kept in double
+
+        Columns(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+            if (hi - lo > leafColumns) {
+                int mid = (lo + hi) >>> 1;
+                left = new Columns(lo, mid);
+                right = new Columns(mid, hi);
+                neighbors = null;
+            } else {
+                left = right = null;
+                neighbors = new float[8];
+            }
+        }
+
+        protected void compute() {
+            if (left != null) {
+                left.reinitialize();
+                right.reinitialize();
+                invokeAll(left, right);
+                lowestTemp = Math.min(left.lowestTemp, right.lowestTemp);
+                maxDelta = Math.max(left.maxDelta, right.maxDelta);
+                sumSquares = left.sumSquares + right.sumSquares;
+                return;
+            }
+            a = read;
+            b = write;
+            lowestTemp = convergenceTemp;
+            maxDelta = sumSquares = 0;
+            for (int i = lo; i < hi; i++) {
+                int col = i * height;
+                if (i == 0 || i == width - 1 || height < 3) {
+                    for (int j = 0; j < height; j++)
+                        edgeCell(i, j, col + j);
+                } else {
+                    edgeCell(i, 0, col);
+                    sweepInterior(col);
+                    edgeCell(i, height - 1, col + height - 1);
+                }
+            }
+        }
+
+        private void edgeCell(int i, int j, int idx) {
+            float old = a[idx];
+            if (isSource(idx))
+                return;
+            if (old < convergenceTemp)
+                update(idx, old, edgeTemp(i, j, idx));
+            else if (carryFrozen)
+                b[idx] = old;
+        }
+
+        // rows 1..height-2 of an interior column, StencilKernel.Alloy's arithmetic in float
+        private void sweepInterior(int col) {
+            final int s = height;
+            final float ar = aRatio, br = bRatio, cr = cRatio;
+            final float ct = convergenceTemp;
+            for (int idx = col + 1, end = col + height - 1; idx < end; ++idx) {
+                float old = a[idx];
+                if (isSource(idx))
+                    continue;
+                if (old >= ct) {
+                    if (carryFrozen)
+                        b[idx] = old;
+                    continue;
+                }
+                float n0 = a[idx - s + 1], n1 = a[idx - s], n2 = a[idx - s - 1], n3 = a[idx - 1];
+                float n4 = a[idx + s - 1], n5 = a[idx + s], n6 = a[idx + s + 1], n7 = a[idx + 1];
+                float newTemp = aConstant * (n0 * ar + n1 * ar + n2 * ar + n3 * ar + n4 * ar + n5 * ar + n6 * ar + n7 * ar) / 8
+                        + bConstant * (n0 * br + n1 * br + n2 * br + n3 * br + n4 * br + n5 * br + n6 * br + n7 * br) / 8
+                        + cConstant * (n0 * cr + n1 * cr + n2 * cr + n3 * cr + n4 * cr + n5 * cr + n6 * cr + n7 * cr) / 8;
+                // like hottestNeighbor, the last neighbor (n7) isn't considered
+                float hottest = Math.max(Math.max(Math.max(n0, n1), Math.max(n2, n3)), Math.max(Math.max(n4, n5), n6));
+                update(idx, old, Math.min(newTemp, hottest));
+            }
+        }
+
+        private void update(int idx, float old, float newTemp) {
+            float written = b[idx];
+            // see LeafNode.previous
+            double delta = newTemp - (written >= convergenceTemp ? written : old);
+            b[idx] = newTemp;
+            if (newTemp < lowestTemp) lowestTemp = newTemp;
+            maxDelta = Math.max(maxDelta, Math.abs(delta));
+            sumSquares += delta * delta;
+        }
+
+        // findNeighbors and calcNewTemp for a cell on the plate's edge, neighbors in the same order
+        private float edgeTemp(int x, int y, int idx) {
+            final int st = height;
+            float[] nb = neighbors;
+            int n;
+            boolean xEdge = x == 0 || x == width - 1, yEdge = y == 0 || y == height - 1;
+            if (xEdge && yEdge) {
+                int dx = x == 0 ? st : -st, dy = y == 0 ? 1 : -1;
+                nb[0] = a[idx + dy];
+                nb[1] = a[idx + dx];
+                nb[2] = a[idx + dx + dy];
+                n = 3;
+            } else {
+                if (x == 0) {
+                    nb[0] = a[idx - 1]; nb[1] = a[idx + st - 1]; nb[2] = a[idx + st]; nb[3] = a[idx + st + 1]; nb[4] = a[idx + 1];
+                } else if (x == width - 1) {
+                    nb[0] = a[idx + 1]; nb[1] = a[idx - st + 1]; nb[2] = a[idx - st]; nb[3] = a[idx - st - 1]; nb[4] = a[idx - 1];
+                } else if (y == 0) {
+                    nb[0] = a[idx - st]; nb[1] = a[idx - st + 1]; nb[2] = a[idx + 1]; nb[3] = a[idx + st + 1]; nb[4] = a[idx + st];
+                } else {
+                    nb[0] = a[idx + st]; nb[1] = a[idx + st - 1]; nb[2] = a[idx - 1]; nb[3] = a[idx - st - 1]; nb[4] = a[idx - st];
+                }
+                n = 5;
+            }
+            float newTemp = metalTemp(aConstant, aRatio, nb, n) + metalTemp(bConstant, bRatio, nb, n)
+                    + metalTemp(cConstant, cRatio, nb, n);
+            float hottest = nb[0];
+            for (int k = 1; k < n - 1; k++)
+                if (nb[k] > hottest)
+                    hottest = nb[k];
+            return Math.min(newTemp, hottest);
+        }
+
+        private float metalTemp(float constant, float ratio, float[] nb, int n) {
+            float t = 0f;
+            for (int k = 0; k < n; k++)
+                t += nb[k] * ratio;
+            return constant * t / n;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.company;
+
+// Hands finished sweeps from the solver to the display. Between sweeps the driver offers the matrix it just
+// wrote; if a frame is due (at most fps per second) the back buffer of a TripleBuffer is pointed at that matrix
+// and published, a single atomic swap. The copy into the frame happens on the reader's side, in take(): a
+// listener's current matrix stays untouched until the sweep after next starts (HeatGrid.keepsCurrent), so the
+// reader has a whole sweep to fill the frame from it. If it hasn't started by the time the next sweep is done,
+// the driver fills the frame itself before the matrix is written again, and if it's still filling, the driver
+// waits for it; either way the display gets a consistent snapshot. In place (Gauss-Seidel) or with temporal
+// blocking there's no such window and the driver fills every frame as it publishes it.
+//
+// So a frame costs the solver a pointer swap when the display keeps up, and one copy (the old price) when it
+// doesn't. Only the newest frame is kept: a frame the display hasn't picked up yet is replaced when a newer one
+// arrives, so a slow display drops frames instead of slowing the solver down.
+//
+// A frame is a copy of the whole plate unless a subclass fills it with less: LodRenderer.Publisher reduces the
+// part of the plate on screen to one mean and one max per pixel, so a plate far bigger than the screen costs a
+// read of its visible cells per frame rather than a copy of all of them.
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FramePublisher implements HeatEngine.SweepListener {
+    // where a frame's temps are: still only in source, being filled by the reader or the driver, or in temps
+    static final int EMPTY = 0, FILLING = 1, FILLED = 2;
+
+    public static final class Frame {
+        final double[] temps;
+        long sweep;
+        LodRenderer.Viewport view; // the view temps holds, see LodRenderer.Publisher; null for the whole plate
+        double[] settled; // the final frame's plate itself, nothing writes it once the run is over
+        double[] source; // the matrix temps is filled from
+        final AtomicInteger state = new AtomicInteger(FILLED);
+
+        Frame(int cells) {
+            temps = new double[cells];
+        }
+
+        public double[] getTemps() {
+            return temps;
+        }
+
+        public long getSweep() {
+            return sweep;
+        }
+    }
+
+    final long minIntervalNanos;
+    final Runnable onFrame; // told when a new frame is waiting, e.g. RenderPipeline.frameReady
+    private final TripleBuffer<Frame> frames;
+
+    // only touched by the driver thread
+    private long lastPublish;
+    private double[] last; // newest sweep offered
+    private long lastSweep;
+    private Frame pending; // published from a matrix the sweeps will write again, until it's filled
+    private long pendingSweep;
+    long published, dropped, filledBySolver;
+
+    // frames of cells doubles, the plate's width * height unless fill is overridden
+    public FramePublisher(int cells, double fps, Runnable onFrame) {
+        if (fps <= 0)
+            throw new IllegalArgumentException("fps must be positive");
+        this.minIntervalNanos = (long) (1e9 / fps);
+        this.onFrame = onFrame;
+        frames = new TripleBuffer<>(new Frame(cells), new Frame(cells), new Frame(cells));
+    }
+
+    @Override
+    public void sweepCompleted(HeatGrid grid, double[] current, long sweep) {
+        // the next sweep writes the pending frame's matrix
+        if (pending != null && sweep > pendingSweep)
+            settle();
+        long now = System.nanoTime();
+        if (published > 0 && now - lastPublish < minIntervalNanos) {
+            last = current;
+            lastSweep = sweep;
+            return;
+        }
+        lastPublish = now;
+        publish(current, sweep, null, grid.keepsCurrent);
+    }
+
+    // publishes the last sweep once more as the final frame, which also hands over the plate itself; call once
+    // the run has finished
+    public void flush() {
+        // nothing writes the matrices any more, a frame still waiting can be filled whenever
+        pending = null;
+        if (last != null)
+            publish(last, lastSweep, last, true);
+    }
+
+    // fills the back frame from current and makes it the newest, regardless of the rate limit
+    public void publish(double[] current, long sweep) {
+        publish(current, sweep, null, false);
+    }
+
+    // with later, the reader fills the frame from current (see the top)
+    private void publish(double[] current, long sweep, double[] settled, boolean later) {
+        Frame f = frames.back();
+        f.source = current;
+        if (later) {
+            f.state.set(EMPTY);
+            if (settled == null) {
+                pending = f;
+                pendingSweep = sweep;
+            }
+        } else {
+            fill(f, current);
+            f.state.set(FILLED);
+        }
+        f.sweep = sweep;
+        f.settled = settled;
+        last = current;
+        lastSweep = sweep;
+        published++;
+        if (frames.publish())
+            dropped++;
+        if (onFrame != null)
+            onFrame.run();
+    }
+
+    // the pending frame's matrix is about to be written: fills the frame here unless the reader got to it first,
+    // in which case this waits for the reader to finish
+    private void settle() {
+        Frame f = pending;
+        pending = null;
+        if (f.state.compareAndSet(EMPTY, FILLING)) {
+            fill(f, f.source);
+            f.state.set(FILLED);
+            filledBySolver++;
+        } else {
+            while (f.state.get() == FILLING)
+                Thread.onSpinWait();
+        }
+    }
+
+    // what of current goes into a frame; on the reader's thread in take(), or the driver's between sweeps
+    void fill(Frame f, double[] current) {
+        System.arraycopy(current, 0, f.temps, 0, current.length);
+    }
+
+    // The newest frame not yet taken, filled, or null. It's the reader's until the next take(), which hands it
+    // back; always called from the same thread, or from threads taking turns.
+    public Frame take() {
+        if (!frames.update())
+            return null;
+        Frame f = frames.front();
+        if (f.state.compareAndSet(EMPTY, FILLING)) {
+            fill(f, f.source);
+            f.state.set(FILLED);
+        } else {
+            // the driver is filling it, its matrix is about to be written
+            while (f.state.get() == FILLING)
+                Thread.onSpinWait();
+        }
+        return f;
+    }
+}
@@ -0,0 +1,374 @@
+package com.company;
+
+// Records a run to a compact binary file for ReplayViewer, e.g. to make the README animation without screen
+// capturing. Every Nth sweep the driver quantizes the field to 16 bits per cell (0 up to the hottest source,
+// about 0.015 degrees a step for the default 1000 degree corner) into a spare buffer and queues it; a writer
+// thread encodes and writes it. The queue is bounded: if the writer falls behind, frames are dropped instead of
+// holding up the sweeps.
+//
+// Frames are stored as the difference to the previous frame, cell by cell in column-major order: a varint run
+// of unchanged cells, then the zigzag varint of the next change, and so on, and that stream is deflated. While
+// the plate warms up nearly every cell moves a step or two per sweep, so the runs alone don't buy much, but the
+// small changes deflate well. Every keyInterval frames a keyframe is written instead, each cell against the one
+// above it (smooth plates make those small too), so a reader can jump into the file without decoding it all.
+//
+// File layout, big endian (DataOutputStream): long magic, int version, int width, int height, float
+// redhottemp, double degrees per quantization step, int keyInterval, then per frame: byte kind (0 key, 1 delta),
+// long sweep, int payload length, payload.
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class FrameRecorder implements HeatEngine.SweepListener, Closeable {
+    static final long MAGIC = 0x4845415452454331L; // "HEATREC1"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 36;
+    static final byte KEY = 0, DELTA = 1;
+    static final int LEVELS = 65535;
+
+    static final class Frame {
+        final char[] q; // quantized temps, column-major
+        long sweep;
+
+        Frame(int cells) {
+            q = new char[cells];
+        }
+    }
+
+    private static final Frame END = new Frame(0);
+
+    final int width, height, every, keyInterval;
+    final double scale; // degrees per quantization step
+    private final BlockingQueue<Frame> queue;
+    private final ConcurrentLinkedQueue<Frame> free = new ConcurrentLinkedQueue<>();
+    private final DataOutputStream out;
+    private final Thread writer;
+    private volatile IOException failure;
+    private int allocated;
+    final int maxFrames;
+
+    // only touched by the driver thread
+    private long lastSweep;
+    long recorded, dropped;
+    // only touched by the writer
+    private char[] previous;
+    private byte[] buf = new byte[1 << 16], packed = new byte[1 << 16];
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private long written;
+
+    // records every `every` sweeps; at most `buffered` frames wait for the writer before new ones are dropped
+    public FrameRecorder(Path file, int width, int height, float redhottemp, double maxTemp,
+                         int every, int keyInterval, int buffered) throws IOException {
+        if (every < 1 || keyInterval < 1 || buffered < 1)
+            throw new IllegalArgumentException("every, keyInterval and buffered must be positive");
+        this.width = width;
+        this.height = height;
+        this.every = every;
+        this.keyInterval = keyInterval;
+        this.scale = maxTemp / LEVELS;
+        this.queue = new ArrayBlockingQueue<>(buffered + 1);
+        this.maxFrames = buffered + 1; // the one being encoded too
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile()), 1 << 16));
+        out.writeLong(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeFloat(redhottemp);
+        out.writeDouble(scale);
+        out.writeInt(keyInterval);
+        writer = new Thread(this::drain, "frame-recorder");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // records engine's run, scaled to its hottest source
+    public static FrameRecorder attach(HeatEngine engine, Path file, int every) throws IOException {
+        SimulationConfig c = engine.config;
+        FrameRecorder r = new FrameRecorder(file, c.width, c.height, c.redhottemp, c.hottestSource(), every, 64, 8);
+        engine.addSweepListener(r);
+        return r;
+    }
+
+    @Override
+    public void sweepCompleted(HeatGrid grid, double[] current, long sweep) {
+        // temporal blocking reports several sweeps at once, so don't count on hitting multiples of every
+        if (sweep - lastSweep >= every) {
+            lastSweep = sweep;
+            record(current, sweep);
+        }
+    }
+
+    // quantizes current into a spare frame and queues it, or drops it if the writer is too far behind
+    public void record(double[] current, long sweep) {
+        Frame f = free.poll();
+        if (f == null) {
+            if (allocated == maxFrames) {
+                dropped++;
+                return;
+            }
+            allocated++;
+            f = new Frame(current.length);
+        }
+        double inv = 1 / scale;
+        char[] q = f.q;
+        for (int i = 0; i < q.length; i++) {
+            long v = Math.round(current[i] * inv);
+            q[i] = (char) (v < 0 ? 0 : v > LEVELS ? LEVELS : v);
+        }
+        f.sweep = sweep;
+        if (queue.offer(f)) {
+            recorded++;
+        } else {
+            free.offer(f);
+            dropped++;
+        }
+    }
+
+    private void drain() {
+        try {
+            for (Frame f; (f = queue.take()) != END; ) {
+                if (failure == null)
+                    write(f);
+                free.offer(f);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    private void write(Frame f) throws IOException {
+        boolean key = previous == null || written % keyInterval == 0;
+        if (previous == null)
+            previous = new char[f.q.length];
+        int len = deflate(encode(f.q, key ? null : previous));
+        out.writeByte(key ? KEY : DELTA);
+        out.writeLong(f.sweep);
+        out.writeInt(len);
+        out.write(packed, 0, len);
+        System.arraycopy(f.q, 0, previous, 0, f.q.length);
+        written++;
+    }
+
+    // run/change pairs of cur against prev, or against the cell before for a keyframe, into buf; returns the length
+    private int encode(char[] cur, char[] prev) {
+        int pos = 0, run = 0;
+        for (int i = 0; i < cur.length; i++) {
+            int d = cur[i] - (prev != null ? prev[i] : i > 0 ? cur[i - 1] : 0);
+            if (d == 0) {
+                run++;
+                continue;
+            }
+            if (buf.length - pos < 10)
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            pos = varint(run, pos);
+            pos = varint((d << 1) ^ (d >> 31), pos);
+            run = 0;
+        }
+        if (buf.length - pos < 5)
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        return varint(run, pos);
+    }
+
+    // deflates the first len bytes of buf into packed, returns the packed length
+    private int deflate(int len) {
+        deflater.reset();
+        deflater.setInput(buf, 0, len);
+        deflater.finish();
+        int pos = 0;
+        while (!deflater.finished()) {
+            if (pos == packed.length)
+                packed = Arrays.copyOf(packed, packed.length * 2);
+            pos += deflater.deflate(packed, pos, packed.length - pos);
+        }
+        return pos;
+    }
+
+    private int varint(int v, int pos) {
+        while ((v & ~0x7F) != 0) {
+            buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[pos++] = (byte) v;
+        return pos;
+    }
+
+    // writes out what's queued and closes the file
+    @Override
+    public void close() throws IOException {
+        try {
+            queue.put(END);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        out.close();
+        deflater.end();
+        if (failure != null)
+            throw failure;
+    }
+
+    public long getRecorded() {
+        return recorded;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    // Reads a recording back. The frames are indexed on open, so any frame can be fetched: going forward
+    // decodes the deltas in between, going back restarts from the nearest keyframe before it.
+    public static class Reader implements Closeable {
+        final FileChannel ch;
+        final int width, height, keyInterval;
+        final float redhottemp;
+        final double scale;
+        final List<long[]> index = new ArrayList<>(); // per frame: payload offset, payload length, sweep, kind
+        private final char[] q;
+        private int position = -1; // frame q holds
+        private ByteBuffer payload = ByteBuffer.allocate(1 << 16);
+        private byte[] stream = new byte[1 << 16];
+        private final Inflater inflater = new Inflater();
+
+        public Reader(Path file) throws IOException {
+            ch = FileChannel.open(file, StandardOpenOption.READ);
+            ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(head, 0);
+            head.flip();
+            if (head.getLong() != MAGIC)
+                throw new IOException(file + " is not a recording");
+            if (head.getInt() != VERSION)
+                throw new IOException(file + " is from a different recorder version");
+            width = head.getInt();
+            height = head.getInt();
+            redhottemp = head.getFloat();
+            scale = head.getDouble();
+            keyInterval = head.getInt();
+            q = new char[width * height];
+
+            ByteBuffer fh = ByteBuffer.allocate(13);
+            long pos = HEADER_BYTES, size = ch.size();
+            while (pos + 13 <= size) {
+                fh.clear();
+                readFully(fh, pos);
+                fh.flip();
+                byte kind = fh.get();
+                long sweep = fh.getLong();
+                int len = fh.getInt();
+                if (pos + 13 + len > size)
+                    break; // cut off mid-frame, e.g. the run was killed
+                index.add(new long[] { pos + 13, len, sweep, kind });
+                pos += 13 + len;
+            }
+        }
+
+        private void readFully(ByteBuffer b, long pos) throws IOException {
+            while (b.hasRemaining()) {
+                int n = ch.read(b, pos);
+                if (n < 0)
+                    throw new EOFException();
+                pos += n;
+            }
+        }
+
+        public int frames() {
+            return index.size();
+        }
+
+        public long sweep(int frame) {
+            return index.get(frame)[2];
+        }
+
+        // decodes frame into temps (column-major, cell (x, y) at x * height + y)
+        public void read(int frame, double[] temps) throws IOException {
+            if (frame < position || position < 0) {
+                position = -1;
+            }
+            int key = frame;
+            while (index.get(key)[3] != KEY)
+                key--;
+            int from = position >= key ? position + 1 : key;
+            for (int i = from; i <= frame; i++)
+                apply(i);
+            position = frame;
+            for (int i = 0; i < q.length; i++)
+                temps[i] = q[i] * scale;
+        }
+
+        private void apply(int frame) throws IOException {
+            long[] e = index.get(frame);
+            int len = (int) e[1];
+            if (payload.capacity() < len)
+                payload = ByteBuffer.allocate(len);
+            payload.clear().limit(len);
+            readFully(payload, e[0]);
+            int n = inflate(payload.array(), len);
+            ByteBuffer b = ByteBuffer.wrap(stream, 0, n);
+            boolean key = e[3] == KEY;
+            int i = 0;
+            while (true) {
+                int run = varint(b);
+                if (key) {
+                    // unchanged from the cell before
+                    char c = i > 0 ? q[i - 1] : 0;
+                    Arrays.fill(q, i, i + run, c);
+                }
+                i += run;
+                if (!b.hasRemaining())
+                    break;
+                int z = varint(b);
+                int d = (z >>> 1) ^ -(z & 1);
+                q[i] = (char) ((key ? i > 0 ? q[i - 1] : 0 : q[i]) + d);
+                i++;
+            }
+        }
+
+        private int inflate(byte[] in, int len) throws IOException {
+            inflater.reset();
+            inflater.setInput(in, 0, len);
+            int pos = 0;
+            try {
+                while (!inflater.finished()) {
+                    if (pos == stream.length)
+                        stream = Arrays.copyOf(stream, stream.length * 2);
+                    int n = inflater.inflate(stream, pos, stream.length - pos);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                        throw new IOException("frame is cut short");
+                    pos += n;
+                }
+            } catch (DataFormatException ex) {
+                throw new IOException("corrupt frame", ex);
+            }
+            return pos;
+        }
+
+        private static int varint(ByteBuffer b) {
+            int v = 0, shift = 0, x;
+            do {
+                x = b.get();
+                v |= (x & 0x7F) << shift;
+                shift += 7;
+            } while ((x & 0x80) != 0);
+            return v;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            ch.close();
+        }
+    }
+}
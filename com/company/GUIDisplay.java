@@ -1,14 +1,38 @@
 package com.company;
 
+// Full screen display. Without arguments the plate is sized to the screen at 10 pixels per cell; with
+// --size WxH (and --downsample mean|max, mean by default) it can be any size, shown zoomable at the
+// screen's resolution, see HeatPropagator.setDownsample.
+
 import javax.swing.*;
 import java.awt.*;
 
 public class GUIDisplay {
     public static void main(String[] args) {
-        SwingUtilities.invokeLater(GUIDisplay::createAndShowGUI);
+        int[] size = null;
+        LodRenderer.Mode mode = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--size": {
+                    String[] wh = args[++i].split("x");
+                    size = new int[] { Integer.parseInt(wh[0].trim()), Integer.parseInt(wh[1].trim()) };
+                    break;
+                }
+                case "--downsample": mode = LodRenderer.Mode.valueOf(args[++i].toUpperCase()); break;
+                default:
+                    System.err.println("usage: GUIDisplay [--size WxH] [--downsample mean|max]");
+                    System.exit(2);
+            }
+        }
+        if (size != null && mode == null)
+            mode = LodRenderer.Mode.MEAN;
+        int[] plate = size;
+        LodRenderer.Mode downsample = mode;
+        SwingUtilities.invokeLater(() -> createAndShowGUI(plate, downsample));
     }
 
-    private static void createAndShowGUI() {
+    // plate null for one cell per 10 pixels of screen, or one per pixel when downsampling
+    private static void createAndShowGUI(int[] plate, LodRenderer.Mode downsample) {
         JFrame f = new JFrame();
         HeatPropagator hp = new HeatPropagator();
         f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -21,9 +45,12 @@ public class GUIDisplay {
         //new Timer(10, e -> hp.repaint()).start();
         f.setVisible(true);
         f.setSize(f.getWidth(), f.getHeight());
-        int matrixWidth = f.getWidth() / 10;
-        int matrixHeight = f.getHeight() / 10;
+        int cell = downsample != null ? 1 : 10;
+        int matrixWidth = plate != null ? plate[0] : f.getWidth() / cell;
+        int matrixHeight = plate != null ? plate[1] : f.getHeight() / cell;
         float redhottemp = 500;
+        hp.setDownsample(downsample);
+        f.validate(); // the panel has its size before begin() reads it
         hp.begin(redhottemp, matrixWidth, matrixHeight);
     }
 }
\ No newline at end of file
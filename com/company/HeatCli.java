@@ -0,0 +1,347 @@
+package com.company;
+
+// Command-line entry point for running the simulation without a display, e.g. on compute nodes with no X server:
+//
+//   java -Djava.awt.headless=true com.company.HeatCli --width 4096 --height 4096 --redhot 500 --out field.csv
+//
+// Prints the run statistics and optionally writes the final field as CSV (one line per row of the plate).
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class HeatCli {
+    // sweep limit for --check-criteria when --max-sweeps isn't given
+    static final long CHECK_SWEEPS = 50_000;
+
+    public static void main(String[] args) throws IOException {
+        int width = 192, height = 108;
+        float redhottemp = 500;
+        String out = null;
+        boolean compare = false, checkCriteria = false;
+        double compareTolerance = -1;
+        SimulationConfig.Solver solver = SimulationConfig.Solver.JACOBI;
+        double omega = 1.0;
+        SimulationConfig.Convergence convergence = SimulationConfig.Convergence.LOWEST_TEMP;
+        double tolerance = 1e-3;
+        boolean relative = false;
+        int checkInterval = 1;
+        Path checkpoint = null, restart = null;
+        long checkpointEvery = 1000;
+        Path record = null;
+        int recordEvery = 10;
+        int ranks = 0, listenPort = -1;
+        Path materials = null;
+        String stencil = "alloy";
+        boolean metrics = false, jmx = false;
+        Map<String, double[]> palette = new LinkedHashMap<>();
+
+        // first pass for the plate size since SimulationConfig needs it up front
+        for (int i = 0; i < args.length - 1; i++) {
+            switch (args[i]) {
+                case "--width": width = Integer.parseInt(args[i + 1]); break;
+                case "--height": height = Integer.parseInt(args[i + 1]); break;
+                case "--redhot": redhottemp = Float.parseFloat(args[i + 1]); break;
+                case "--restart": restart = Paths.get(args[i + 1]); break;
+            }
+        }
+        // a restart takes the plate, alloy, sources and update rule from the checkpoint, the other options still
+        // apply (and Checkpoint.restore refuses the ones that would change the rule)
+        SimulationConfig config = restart != null ? Checkpoint.readConfig(restart)
+                : new SimulationConfig(width, height, redhottemp);
+        if (restart != null) {
+            solver = config.solver;
+            omega = config.omega;
+            convergence = config.convergence;
+            tolerance = config.tolerance;
+            relative = config.relativeTolerance;
+            stencil = null;
+        }
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--width":
+                case "--height":
+                case "--redhot":
+                case "--restart":
+                    i++;
+                    break;
+                case "--corners": {
+                    double[] v = doubles(args[++i], 2);
+                    config.setCornerTemps(v[0], v[1]);
+                    break;
+                }
+                case "--constants": {
+                    double[] v = doubles(args[++i], 3);
+                    config.setMetalConstants(v[0], v[1], v[2]);
+                    break;
+                }
+                case "--ratios": {
+                    double[] v = doubles(args[++i], 3);
+                    config.setMetalRatios(v[0], v[1], v[2]);
+                    break;
+                }
+                case "--stencil": stencil = args[++i]; break;
+                case "--materials": materials = Paths.get(args[++i]); break;
+                case "--material": {
+                    // KEY=A,B,C, KEY being a value in the --materials CSV or an image color as rrggbb
+                    String[] kv = args[++i].split("=", 2);
+                    if (kv.length != 2)
+                        throw new IllegalArgumentException("expected KEY=A,B,C, got " + args[i]);
+                    palette.put(kv[0].trim(), doubles(kv[1], 3));
+                    break;
+                }
+                case "--source": {
+                    double[] v = doubles(args[++i], 3);
+                    config.addSource((int) v[0], (int) v[1], v[2]);
+                    break;
+                }
+                case "--initial": config.setInitialTemp(Double.parseDouble(args[++i])); break;
+                case "--granularity": config.setGranularity(Integer.parseInt(args[++i])); break;
+                case "--threads": config.setParallelism(Integer.parseInt(args[++i])); break;
+                case "--adaptive": {
+                    double[] v = doubles(args[++i], 2);
+                    config.setAdaptive((int) v[0], (int) v[1]);
+                    break;
+                }
+                case "--temporal-block": config.setTemporalBlock(Integer.parseInt(args[++i])); break;
+                case "--solver": solver = SimulationConfig.Solver.valueOf(args[++i].toUpperCase().replace('-', '_')); break;
+                case "--omega": omega = Double.parseDouble(args[++i]); break;
+                case "--cycle": {
+                    double[] v = doubles(args[++i], 4);
+                    config.setMultigridCycle((int) v[0], (int) v[1], (int) v[2], (int) v[3]);
+                    break;
+                }
+                case "--convergence": convergence = SimulationConfig.Convergence.valueOf(args[++i].toUpperCase().replace('-', '_')); break;
+                case "--tolerance": tolerance = Double.parseDouble(args[++i]); break;
+                case "--relative": relative = true; break;
+                case "--check-interval": checkInterval = Integer.parseInt(args[++i]); break;
+                case "--checkpoint": checkpoint = Paths.get(args[++i]); break;
+                case "--checkpoint-every": checkpointEvery = Long.parseLong(args[++i]); break;
+                case "--record": record = Paths.get(args[++i]); break;
+                case "--record-every": recordEvery = Integer.parseInt(args[++i]); break;
+                case "--ranks": ranks = Integer.parseInt(args[++i]); break;
+                case "--listen": listenPort = Integer.parseInt(args[++i]); break;
+                case "--activity": config.setActivityTracking(Double.parseDouble(args[++i])); break;
+                case "--storage": config.setStorage(SimulationConfig.Storage.valueOf(args[++i].toUpperCase().replace('-', '_')), config.storageFile); break;
+                case "--storage-file": config.setStorage(config.storage, args[++i]); break;
+                case "--kernel": config.setKernel(SimulationConfig.Kernel.valueOf(args[++i].toUpperCase())); break;
+                case "--executor": config.setExecutor(SimulationConfig.Executor.valueOf(args[++i].toUpperCase().replace('-', '_'))); break;
+                case "--metrics": metrics = true; break;
+                case "--jmx": jmx = true; break;
+                case "--compare": compare = true; break;
+                case "--check-criteria": checkCriteria = true; break;
+                case "--compare-tolerance": compare = true; compareTolerance = Double.parseDouble(args[++i]); break;
+                case "--precision": config.setPrecision(SimulationConfig.Precision.valueOf(args[++i].toUpperCase())); break;
+                case "--max-sweeps": config.setMaxSweeps(Long.parseLong(args[++i])); break;
+                case "--out": out = args[++i]; break;
+                case "--help":
+                    usage();
+                    return;
+                default:
+                    System.err.println("unknown option " + arg);
+                    usage();
+                    System.exit(2);
+            }
+        }
+
+        // after the loop, the alloy stencils take --constants and --ratios; a restart keeps the checkpoint's
+        // unless --stencil is given
+        if (stencil != null)
+            config.setStencil(stencil(stencil, config));
+        // checkpoints don't keep the material map, a restart needs the same --materials again
+        if (materials != null)
+            config.setMaterials(MaterialMap.load(materials, config.width, config.height, palette));
+        config.setSolver(solver, omega);
+        config.setConvergence(convergence, tolerance, relative, checkInterval);
+        if (checkCriteria) {
+            System.exit(checkCriteria(config) ? 0 : 1);
+            return;
+        }
+        SimulationResult result;
+        if (ranks > 0) {
+            if (checkpoint != null || restart != null || record != null)
+                throw new IllegalArgumentException("checkpoints and recording are not supported in distributed runs");
+            DistributedRun run = new DistributedRun(config, ranks);
+            if (listenPort >= 0)
+                run.listen(listenPort);
+            result = run.run();
+            System.out.println(result);
+            System.out.println("over " + ranks + " worker processes");
+        } else if (config.storage != SimulationConfig.Storage.HEAP || config.precision != SimulationConfig.Precision.DOUBLE) {
+            if (checkpoint != null || restart != null || record != null)
+                throw new IllegalArgumentException("checkpoints and recording need a double plate on the heap");
+            result = HeatEngine.simulate(config);
+            System.out.println(result);
+            if (config.storage == SimulationConfig.Storage.MAPPED)
+                System.out.println("final field is the first " + 8L * config.width * config.height
+                        + " bytes of " + config.storageFile);
+        } else if (solver == SimulationConfig.Solver.MULTIGRID) {
+            if (checkpoint != null || restart != null || record != null)
+                throw new IllegalArgumentException("checkpoints and recording are not supported with the multigrid solver");
+            MultigridSolver mg = new MultigridSolver(config);
+            result = mg.run();
+            System.out.println(result);
+            System.out.printf("%d cycles over %d levels, %.1f fine-sweep equivalents of work%n",
+                    mg.getCycles(), mg.getLevels(), mg.workUnits());
+        } else {
+            HeatEngine engine = restart != null ? Checkpoint.restore(restart, config) : new HeatEngine(config);
+            if (restart != null)
+                System.out.println("restarting from sweep " + engine.sweeps + " of " + restart);
+            Checkpoint saver = checkpoint != null ? new Checkpoint(engine, checkpoint, checkpointEvery) : null;
+            FrameRecorder recorder = record != null ? FrameRecorder.attach(engine, record, recordEvery) : null;
+            if (jmx)
+                engine.getMetrics().register("HeatCli");
+            result = engine.run();
+            if (recorder != null) {
+                recorder.close();
+                System.out.printf("recorded %d frames to %s (%d dropped while the writer was behind)%n",
+                        recorder.getRecorded(), record, recorder.getDropped());
+            }
+            if (saver != null) {
+                saver.close();
+                System.out.printf("wrote %d checkpoints to %s (%d skipped while the writer was busy)%n",
+                        saver.getTaken(), checkpoint, saver.getSkipped());
+            }
+            System.out.println(result);
+            if (config.adaptive)
+                System.out.println("rebalanced the tree " + engine.rebalances + " times, starting from leaves of <= "
+                        + engine.granularity + " cells");
+            if (config.trackActivity())
+                System.out.printf("skipped %d of %d tile sweeps%s%n", engine.skippedLeafSweeps,
+                        engine.leafSweeps + engine.skippedLeafSweeps, engine.settled ? ", every tile settled" : "");
+            if (metrics || jmx)
+                System.out.println(engine.getMetrics());
+            if (config.kernel == SimulationConfig.Kernel.AUTO)
+                System.out.println(engine.isVectorized() ? "vector kernel" : "scalar kernel (" + engine.scalarReason() + ")");
+        }
+        if (compare) {
+            double diff = compareWithPlain(config, result);
+            if (compareTolerance >= 0 && diff > compareTolerance) {
+                System.out.printf("difference %.3g is over the tolerance of %.3g%n", diff, compareTolerance);
+                System.exit(1);
+            }
+        }
+        if (out != null)
+            writeCsv(result, out);
+    }
+
+    // Reruns the same plate with the plain one-sweep-at-a-time Jacobi solver and reports how far apart they are.
+    // Modes that should reproduce Jacobi sweep for sweep are compared after the same number of sweeps, other
+    // solvers are compared on their converged fields. The reference keeps the plate and its update rule (stencil,
+    // materials) but none of the ways of running it: fork-join tree, fixed leaves, scalar kernel.
+    // Returns the largest difference between the two fields.
+    static double compareWithPlain(SimulationConfig config, SimulationResult result) {
+        if (result.field == null)
+            throw new IllegalArgumentException("the field is too big to bring onto the heap for a comparison");
+        SimulationConfig plain = config.copy();
+        plain.temporalBlock = 1;
+        plain.activityEpsilon = -1;
+        plain.adaptive = false;
+        plain.storage = SimulationConfig.Storage.HEAP;
+        plain.precision = SimulationConfig.Precision.DOUBLE;
+        plain.setExecutor(SimulationConfig.Executor.FORK_JOIN);
+        plain.setKernel(SimulationConfig.Kernel.SCALAR);
+        plain.setSolver(SimulationConfig.Solver.JACOBI, 1.0);
+        boolean sweepForSweep = config.solver == SimulationConfig.Solver.JACOBI;
+        if (sweepForSweep) {
+            plain.setMaxSweeps(result.sweeps);
+            plain.ignoreConvergence = true;
+        }
+        SimulationResult reference = new HeatEngine(plain).run();
+        double maxDiff = 0;
+        for (int i = 0; i < result.field.length; i++)
+            maxDiff = Math.max(maxDiff, Math.abs(result.field[i] - reference.field[i]));
+        System.out.println("plain Jacobi: " + reference);
+        if (sweepForSweep)
+            System.out.printf("max |difference| after %d sweeps: %.3g%n", result.sweeps, maxDiff);
+        else
+            System.out.printf("%d sweeps vs %d for Jacobi, max |difference| between the final fields: %.3g%n",
+                    result.sweeps, reference.sweeps, maxDiff);
+        return maxDiff;
+    }
+
+    // Runs the plate once under every convergence criterion, with the configured tolerance, and reports whether
+    // each one converged before maxSweeps (CHECK_SWEEPS unless set), e.g.
+    //   HeatCli --check-criteria --tolerance 0.01
+    //   HeatCli --check-criteria --tolerance 0.01 --solver multigrid --constants 1,1,1 --redhot 1000
+    // LOWEST_TEMP waits for the coldest cell to reach redhottemp, so it's skipped when that's past the hottest source.
+    static boolean checkCriteria(SimulationConfig config) {
+        boolean all = true;
+        for (SimulationConfig.Convergence c : SimulationConfig.Convergence.values()) {
+            if (c == SimulationConfig.Convergence.LOWEST_TEMP && config.redhottemp >= config.hottestSource()) {
+                System.out.println("lowest-temp: skipped, no cell gets past the hottest source");
+                continue;
+            }
+            SimulationConfig run = config.copy().setConvergence(c, config.tolerance, config.relativeTolerance,
+                    config.checkInterval);
+            if (run.maxSweeps == Long.MAX_VALUE)
+                run.setMaxSweeps(CHECK_SWEEPS);
+            SimulationResult result = HeatEngine.simulate(run);
+            System.out.println(c.name().toLowerCase().replace('_', '-') + ": " + result);
+            all &= result.converged;
+        }
+        System.out.println(all ? "every criterion converged" : "some criterion did not converge");
+        return all;
+    }
+
+    // alloy (the original rule), unclamped-alloy, four-point or anisotropic weights as KX,KY,KD
+    static StencilKernel stencil(String name, SimulationConfig config) {
+        switch (name) {
+            case "alloy": return null;
+            case "unclamped-alloy": return StencilKernel.Alloy.of(config, false);
+            case "four-point": return new StencilKernel.FourPoint();
+            default:
+                double[] k = doubles(name, 3);
+                return new StencilKernel.Anisotropic(k[0], k[1], k[2]);
+        }
+    }
+
+    static double[] doubles(String csv, int count) {
+        String[] parts = csv.split(",");
+        if (parts.length != count)
+            throw new IllegalArgumentException("expected " + count + " comma separated values, got " + csv);
+        double[] v = new double[count];
+        for (int i = 0; i < count; i++)
+            v[i] = Double.parseDouble(parts[i].trim());
+        return v;
+    }
+
+    static void writeCsv(SimulationResult result, String path) throws IOException {
+        if (result.field == null)
+            throw new IllegalArgumentException("the field is too big to bring onto the heap for a CSV");
+        try (BufferedWriter w = Files.newBufferedWriter(Paths.get(path))) {
+            for (int y = 0; y < result.height; y++) {
+                for (int x = 0; x < result.width; x++) {
+                    if (x > 0)
+                        w.write(',');
+                    w.write(Double.toString(result.temp(x, y)));
+                }
+                w.newLine();
+            }
+        }
+    }
+
+    static void usage() {
+        System.out.println("usage: HeatCli [--width N] [--height N] [--redhot T] [--corners S,T]\n"
+                + "               [--constants A,B,C] [--ratios A,B,C] [--source X,Y,T]... [--initial T]\n"
+                + "               [--materials MASK.csv|MASK.png --material KEY=A,B,C...]\n"
+                + "               [--stencil alloy|unclamped-alloy|four-point|KX,KY,KD]\n"
+                + "               [--granularity CELLS] [--adaptive LEAVES_PER_THREAD,INTERVAL] [--threads N]\n"
+                + "               [--executor fork-join|barrier]\n"
+                + "               [--temporal-block K] [--solver jacobi|gauss-seidel|multigrid] [--omega W]\n"
+                + "               [--cycle GAMMA,PRE,POST,COARSE] [--kernel auto|scalar|vector] [--activity EPS]\n"
+                + "               [--convergence lowest-temp|max-delta|l2] [--tolerance T] [--relative]\n"
+                + "               [--check-interval N] [--checkpoint FILE] [--checkpoint-every SWEEPS]\n"
+                + "               [--restart FILE] [--record FILE] [--record-every SWEEPS] [--max-sweeps N]\n"
+                + "               [--ranks N [--listen PORT]] [--storage heap|off-heap|mapped] [--storage-file FILE]\n"
+                + "               [--precision double|float] [--metrics] [--jmx] [--compare] [--compare-tolerance T]\n"
+                + "               [--check-criteria]\n"
+                + "               [--out field.csv]");
+    }
+}
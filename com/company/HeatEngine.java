@@ -0,0 +1,1088 @@
+package com.company;
+
+// Headless version of the simulation HeatPropagator runs. Loosely based on CCJacobi.java by Doug Lea at
+// http://gee.cs.oswego.edu/cgi-bin/viewcvs.cgi/jsr166/src/test/loops/CCJacobi.java?revision=1.7&view=markup&pathrev=MAIN
+// The plate is split into a tree of CountedCompleters once, and the same tree is re-run every sweep until the
+// coldest cell that still changes is warm enough. Nothing in here touches Swing, so it can run without a display.
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+public class HeatEngine {
+    final SimulationConfig config;
+    final HeatGrid grid;
+    final int width, height;
+    final double A_CONSTANT, B_CONSTANT, C_CONSTANT, S_TEMP, T_TEMP;
+    final double A_RATIO, B_RATIO, C_RATIO;
+    final float redhottemp;
+    final int granularity;
+
+    // cells at or above this temp are left alone by the leaves
+    final double convergenceTemp;
+    // the run is done once the lowest updated temp reaches this
+    final double targetTemp;
+    // residual criteria: frozen cells go into both matrices, see SimulationConfig.carriesFrozenCells
+    final boolean carryFrozen;
+
+    // adaptive mode never splits a leaf below this many cells, smaller tasks cost more to fork than to run
+    static final int MIN_ADAPTIVE_LEAF = 1024;
+
+    long sweeps;
+    int rebalances;
+    // activity tracking: leaf sweeps run and skipped, and whether every tile has gone quiet
+    long leafSweeps, skippedLeafSweeps;
+    boolean settled;
+    double firstResidual = -1; // residual of the first sweep, the base for relative tolerances
+    Driver driver; // the tree run() or smooth() sweeps
+    final SolverMetrics metrics = new SolverMetrics(this);
+    // temporal blocking: sweeps the leaves run per block, and whether they are copying their tiles back
+    int blockSteps;
+    boolean writingBack;
+    // Gauss-Seidel: which of the four colors the leaves update this pass
+    int color;
+    final List<SweepListener> listeners = new ArrayList<>();
+    // the update rule, see StencilKernel
+    final StencilKernel stencil;
+    // bulk update for interior cells, null for the scalar path
+    final InteriorKernel kernel;
+
+    public interface SweepListener {
+        // called from the driver thread between sweeps (with the barrier executor, whichever worker got to the
+        // barrier last), while no leaf is running. current is the matrix the sweep just wrote; when
+        // grid.keepsCurrent it stays untouched until the sweep after next starts, otherwise (in place, or with
+        // temporal blocking) the next pass may write it.
+        void sweepCompleted(HeatGrid grid, double[] current, long sweep);
+    }
+
+    // Updates a run of interior cells (all 8 neighbors on the plate) of one column in a single call, the same
+    // way findNeighbors/calcNewTemp would: sources and cells at convergenceTemp are left alone.
+    interface InteriorKernel {
+        // rows lo..hi of column col, reading a and writing b; returns the lowest temp written, or lowest if
+        // that is lower. Raises change[0] to the largest |new - old| if that is larger and adds the squared
+        // changes to change[1].
+        double sweepColumn(double[] a, double[] b, int col, int lo, int hi, double lowest, double[] change);
+    }
+
+    // The Vector API is an incubator module, so VectorStencil is compiled from its own source root and only
+    // loads when the JVM runs with --add-modules jdk.incubator.vector. Returns null when it can't be used.
+    InteriorKernel loadVectorKernel() {
+        try {
+            Class<?> c = Class.forName("com.company.VectorStencil");
+            return (InteriorKernel) c.getDeclaredConstructor(HeatEngine.class).newInstance(this);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    public HeatEngine(SimulationConfig config) {
+        config.validate();
+        if (config.solver == SimulationConfig.Solver.MULTIGRID)
+            throw new IllegalArgumentException("multigrid runs through MultigridSolver, see HeatEngine.simulate");
+        if (config.storage != SimulationConfig.Storage.HEAP)
+            throw new IllegalArgumentException("off-heap plates run through OffHeapEngine, see HeatEngine.simulate");
+        if (config.precision != SimulationConfig.Precision.DOUBLE)
+            throw new IllegalArgumentException("single precision runs through FloatEngine, see HeatEngine.simulate");
+        this.config = config;
+        this.width = config.width;
+        this.height = config.height;
+        this.redhottemp = config.redhottemp;
+        A_CONSTANT = config.aConstant;
+        B_CONSTANT = config.bConstant;
+        C_CONSTANT = config.cConstant;
+        A_RATIO = config.aRatio;
+        B_RATIO = config.bRatio;
+        C_RATIO = config.cRatio;
+        S_TEMP = config.sTemp;
+        T_TEMP = config.tTemp;
+        granularity = config.effectiveGranularity();
+
+        grid = new HeatGrid(width, height, config.initialTemp, config.solver == SimulationConfig.Solver.GAUSS_SEIDEL);
+        if (config.temporalBlock > 1)
+            grid.keepsCurrent = false;
+        for (SimulationConfig.HeatSource s : config.effectiveSources())
+            grid.addSource(s.x, s.y, s.temp);
+        if (config.materials != null)
+            grid.coef = config.materials.coefficients(A_CONSTANT, B_CONSTANT, C_CONSTANT);
+
+        convergenceTemp = Math.min(redhottemp, config.hottestSource());
+        carryFrozen = config.carriesFrozenCells();
+        double cornerHeatAvg = config.averageSource();
+        if (redhottemp < cornerHeatAvg)
+            targetTemp = redhottemp * .90;
+        else
+            targetTemp = cornerHeatAvg;
+
+        stencil = config.stencil != null ? config.stencil : StencilKernel.Alloy.of(config, true);
+        // the vector kernel only knows the original rule
+        kernel = config.kernel == SimulationConfig.Kernel.SCALAR || config.stencil != null ? null : loadVectorKernel();
+        if (kernel == null && config.kernel == SimulationConfig.Kernel.VECTOR)
+            throw new IllegalStateException("the vector kernel needs VectorStencil on the classpath and "
+                    + "--add-modules jdk.incubator.vector");
+    }
+
+    // whether the Jacobi sweeps' interior columns actually go through the vector kernel
+    public boolean isVectorized() {
+        return scalarReason() == null;
+    }
+
+    // why the interior columns run on the scalar path, or null when they run on the vector kernel
+    public String scalarReason() {
+        if (config.kernel == SimulationConfig.Kernel.SCALAR)
+            return "asked for";
+        if (config.stencil != null)
+            return "the vector kernel only knows the alloy rule";
+        if (config.solver == SimulationConfig.Solver.GAUSS_SEIDEL)
+            return "Gauss-Seidel sweeps in place";
+        if (config.temporalBlock > 1)
+            return "temporal blocks sweep their own tiles";
+        if (config.materials != null)
+            return "material maps weigh every neighbor";
+        if (kernel == null)
+            return "Vector API not available";
+        return null;
+    }
+
+    // listeners are called in the order they were added, e.g. a FramePublisher and a Checkpoint
+    public void addSweepListener(SweepListener listener) {
+        listeners.add(listener);
+    }
+
+    public HeatGrid getGrid() {
+        return grid;
+    }
+
+    public SolverMetrics getMetrics() {
+        return metrics;
+    }
+
+    // For solvers that drive the sweeps themselves, like MultigridSolver: runs n iterations on this engine's
+    // tree, whether or not the plate has converged. Has to be called from inside a ForkJoinPool task.
+    void smooth(int n) {
+        if (driver == null)
+            driver = newDriver();
+        for (int i = 0; i < n && sweeps < config.maxSweeps; i++)
+            driver.iterate();
+    }
+
+    // the whole plate, except a slab's ghost columns: those belong to the neighboring slabs (see SlabWorker)
+    private Driver newDriver() {
+        return new Driver(grid, 0, height, config.haloLeft, width - config.haloRight, granularity);
+    }
+
+    // the matrix the last sweep wrote
+    double[] current() {
+        return grid.latest(sweeps);
+    }
+
+    // runs whichever solver, storage and precision the config asks for
+    public static SimulationResult simulate(SimulationConfig config) {
+        if (config.solver == SimulationConfig.Solver.MULTIGRID)
+            return new MultigridSolver(config).run();
+        if (config.storage != SimulationConfig.Storage.HEAP)
+            return loadOffHeap(config).run();
+        if (config.precision == SimulationConfig.Precision.FLOAT)
+            return new FloatEngine(config).run();
+        return new HeatEngine(config).run();
+    }
+
+    // a run outside the fork-join tree here, on a plate stored some other way
+    interface Backend {
+        SimulationResult run();
+    }
+
+    // OffHeapEngine is built on the Foreign Memory API, an incubator module in JDK 17, so like VectorStencil it's
+    // compiled from its own source root (foreign/) and only loads with --add-modules jdk.incubator.foreign
+    static Backend loadOffHeap(SimulationConfig config) {
+        Class<?> c;
+        try {
+            c = Class.forName("com.company.OffHeapEngine");
+        } catch (ClassNotFoundException | LinkageError e) {
+            throw new IllegalStateException("off-heap storage needs OffHeapEngine on the classpath and "
+                    + "--add-modules jdk.incubator.foreign", e);
+        }
+        try {
+            return (Backend) c.getDeclaredConstructor(SimulationConfig.class).newInstance(config);
+        } catch (java.lang.reflect.InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // runs the simulation to convergence (or config.maxSweeps) and returns a copy of the final field
+    public SimulationResult run() {
+        long first = sweeps; // a restored engine starts past 0
+        if (config.executor == SimulationConfig.Executor.BARRIER) {
+            long start = System.nanoTime();
+            Driver driver = this.driver = newDriver();
+            new BarrierExecutor(this, driver).run();
+            return result(first, System.nanoTime() - start);
+        }
+        ForkJoinPool pool = config.parallelism > 0 ? new ForkJoinPool(config.parallelism) : ForkJoinPool.commonPool();
+        try {
+            long start = System.nanoTime();
+            Driver driver = this.driver = newDriver();
+            pool.invoke(driver);
+            return result(first, System.nanoTime() - start);
+        } finally {
+            if (pool != ForkJoinPool.commonPool())
+                pool.shutdown();
+        }
+    }
+
+    // run() for a caller that already is a task in the pool the tree should fork into, like EnsembleRunner's;
+    // config.parallelism only sets the leaf size then, and the executor is always the tree
+    SimulationResult runInPool() {
+        long first = sweeps;
+        long start = System.nanoTime();
+        Driver driver = this.driver = newDriver();
+        driver.invoke();
+        return result(first, System.nanoTime() - start);
+    }
+
+    // first is the sweep count the run started from, so the rates only count the sweeps it did
+    private SimulationResult result(long first, long elapsed) {
+        MatrixTree m = driver.mat;
+        // an adaptive tree has split and merged its leaves since, so its sizes come from the tree as it ended
+        return new SimulationResult(width, height, grid.latest(sweeps).clone(), sweeps, elapsed,
+                m.lowestTemp, residual(m), converged(m), driver.nleaf,
+                config.adaptive ? driver.largestLeaf() : granularity).startingFrom(first);
+    }
+
+    // the residual the configured criterion looks at, for the sweep m last ran
+    double residual(MatrixTree m) {
+        return config.convergence == SimulationConfig.Convergence.L2 ? Math.sqrt(m.sumSquares) : m.maxDelta;
+    }
+
+    // whether the sweep m last ran meets the configured stopping criterion
+    boolean converged(MatrixTree m) {
+        if (config.convergence == SimulationConfig.Convergence.LOWEST_TEMP)
+            return m.lowestTemp >= targetTemp;
+        double tolerance = config.relativeTolerance ? config.tolerance * firstResidual : config.tolerance;
+        return residual(m) <= tolerance;
+    }
+
+    abstract class MatrixTree extends CountedCompleter<Void> {
+        // lowest temp written by the last sweep, and the largest and summed squared change of any cell in it;
+        // leaves fill these in and every node reduces its children's in onCompletion
+        double lowestTemp;
+        double maxDelta, sumSquares;
+        final int forks; // pending count to reset to before each sweep
+        boolean scheduled = true; // activity tracking: something in this subtree runs this sweep
+
+        MatrixTree(CountedCompleter<?> p, int c) {
+            super(p, c);
+            forks = c;
+        }
+
+        // swaps a direct child for a rebuilt subtree covering the same cells
+        void replace(MatrixTree child, MatrixTree with) {
+            throw new IllegalStateException("leaves have no children");
+        }
+    }
+
+    final class LeafNode extends MatrixTree {
+        final HeatGrid grid;
+        final double[] A; // matrix to get old values from
+        final double[] B; // matrix to put new values into
+        final double[] neighbors = new double[8]; // neighbor temps, reused for every cell
+        final double[] weights = new double[8]; // the neighbors' coefficients, on plates with a MaterialMap
+
+        // indices of current submatrix
+        final int loRow;
+        final int hiRow;
+        final int loCol;
+        final int hiCol;
+
+        int steps = (int) sweeps; // track even/odd steps, leaves built mid-run start in step with the rest
+        double cost; // smoothed nanos per sweep, only measured in adaptive mode
+        long nanos; // compute() time since SolverMetrics last sampled it
+        double[] blockA, blockB; // tile plus halo, only used when temporal blocking
+        boolean blockAtoB; // which matrix blockA was copied from
+        final double[] change = new double[2]; // largest |new - old| and sum of squared changes of this sweep
+        boolean active = true; // changed by more than activityEpsilon last time it ran
+        LeafNode[] adjacent = new LeafNode[0]; // leaves whose cells border this one's, set by the driver
+
+        LeafNode(CountedCompleter<?> p,
+                 HeatGrid grid,
+                 int loRow, int hiRow,
+                 int loCol, int hiCol) {
+            super(p, 0);
+            this.grid = grid;
+            this.A = grid.A;
+            this.B = grid.B;
+            this.loRow = loRow;
+            this.hiRow = hiRow-1;
+            this.loCol = loCol;
+            this.hiCol = hiCol-1;
+        }
+
+        public final void compute() {
+            pass();
+            tryComplete();
+        }
+
+        // this leaf's share of one pass of the tree, for the tree or a BarrierExecutor worker
+        final void pass() {
+            long start = System.nanoTime();
+            if (config.solver == SimulationConfig.Solver.GAUSS_SEIDEL) {
+                if (color == 0)
+                    change[0] = change[1] = 0;
+                double lt = sweepColor(color);
+                lowestTemp = color == 0 ? lt : Math.min(lowestTemp, lt);
+                maxDelta = change[0];
+                sumSquares = change[1];
+            } else if (config.temporalBlock > 1) {
+                if (writingBack) {
+                    writeBack();
+                } else {
+                    change[0] = change[1] = 0;
+                    lowestTemp = sweepBlock(blockSteps);
+                    maxDelta = change[0];
+                    sumSquares = change[1];
+                }
+            } else {
+                change[0] = change[1] = 0;
+                lowestTemp = sweep();
+                maxDelta = change[0];
+                sumSquares = change[1];
+                if (config.trackActivity())
+                    active = change[0] > config.activityEpsilon;
+            }
+            long took = System.nanoTime() - start;
+            nanos += took;
+            if (config.adaptive)
+                cost = cost == 0 ? took : (cost + took) * .5;
+        }
+
+        private double sweep() {
+            boolean AtoB = (steps++ & 1) == 0;  // bitwise AND to determine if even or odd
+            double[] a = AtoB ? A : B;          // if(even){ a = A } else{ a = B }
+            double[] b = AtoB ? B : A;          // same as above but inverse
+
+            double[] f = grid.forcing;
+            double[] w = grid.coef;
+            double lt = convergenceTemp;    // local for tracking lowest temp (set to max so it'll always find the lowest temp that's actually in the set being observed)
+            // interior rows of interior columns go to the stencil's column loop (or the vector kernel) in one call,
+            // only the plate's edges and corners go through findNeighbors
+            int lo = Math.max(loRow, 1), hi = Math.min(hiRow, height - 2);
+            for (int i = loCol; i <= hiCol; ++i) {
+                if (i == 0 || i == width - 1 || lo > hi) {
+                    lt = sweepRows(a, b, f, i, loRow, hiRow, lt);
+                } else {
+                    lt = sweepRows(a, b, f, i, loRow, lo - 1, lt);
+                    if (w != null)
+                        lt = sweepInteriorWeighted(a, b, w, i, lo, hi, lt);
+                    else if (kernel != null && f == null)
+                        lt = kernel.sweepColumn(a, b, i, lo, hi, lt, change);
+                    else
+                        lt = stencil.sweepColumn(a, b, f, grid, i, lo, hi, convergenceTemp, lt, change);
+                    lt = sweepRows(a, b, f, i, hi + 1, hiRow, lt);
+                }
+                if (carryFrozen)
+                    carryFrozen(a, b, i);
+            }
+            return lt;
+        }
+
+        // copies this leaf's frozen cells of column i from a into b, which the sweep skipped
+        private void carryFrozen(double[] a, double[] b, int i) {
+            final double ct = convergenceTemp;
+            for (int idx = i * height + loRow, end = i * height + hiRow; idx <= end; ++idx) {
+                if (a[idx] >= ct)
+                    b[idx] = a[idx];
+            }
+        }
+
+        // StencilKernel.Alloy.sweepColumn for a plate with a MaterialMap: one weighted sum per cell, in
+        // weightedTemp's order
+        private double sweepInteriorWeighted(double[] a, double[] b, double[] w, int i, int lo, int hi, double lt) {
+            final int s = height;
+            final double ct = convergenceTemp;
+            double d = change[0], ss = change[1];
+            for (int idx = i * s + lo, end = i * s + hi; idx <= end; ++idx) {
+                double old = a[idx];
+                if (grid.isSource(idx) || old >= ct)
+                    continue;
+                double n0 = a[idx - s + 1], n1 = a[idx - s], n2 = a[idx - s - 1], n3 = a[idx - 1];
+                double n4 = a[idx + s - 1], n5 = a[idx + s], n6 = a[idx + s + 1], n7 = a[idx + 1];
+                double newTemp = (n0 * w[idx - s + 1] + n1 * w[idx - s] + n2 * w[idx - s - 1] + n3 * w[idx - 1]
+                        + n4 * w[idx + s - 1] + n5 * w[idx + s] + n6 * w[idx + s + 1] + n7 * w[idx + 1]) / 8;
+                double hottest = Math.max(Math.max(Math.max(n0, n1), Math.max(n2, n3)), Math.max(Math.max(n4, n5), n6));
+                newTemp = Math.min(newTemp, hottest);
+                double delta = newTemp - previous(old, b[idx]);
+                b[idx] = newTemp;
+                if (newTemp < lt) lt = newTemp;
+                d = Math.max(d, Math.abs(delta));
+                ss += delta * delta;
+            }
+            change[0] = d;
+            change[1] = ss;
+            return lt;
+        }
+
+        // A cell's value before this sweep, for the residual. A cell that reached convergenceTemp is skipped, so
+        // (unless carryFrozen) the matrix it wasn't written to keeps an older, colder value; when a sweep reads
+        // that one, the cell's latest value is the one in the matrix being written.
+        final double previous(double read, double written) {
+            return written >= convergenceTemp ? written : read;
+        }
+
+        // the scalar update for rows lo..hi of column i
+        private double sweepRows(double[] a, double[] b, double[] f, int i, int lo, int hi, double lt) {
+            double d = change[0], ss = change[1];
+            for (int j = lo; j <= hi; ++j) {
+                int idx = i * height + j;
+                if (!grid.isSource(idx)) {
+                    if (a[idx] < convergenceTemp) {
+                        int n = findNeighbors(i, j, a, idx, height, neighbors);
+                        double newTemp = calcNewTemp(i, j, idx, n);
+                        if (f != null)
+                            newTemp += f[idx];
+                        double delta = newTemp - previous(a[idx], b[idx]);
+                        b[idx] = newTemp;
+                        if (newTemp < lt) lt = newTemp;
+                        d = Math.max(d, Math.abs(delta));
+                        ss += delta * delta;
+                    }
+                }
+            }
+            change[0] = d;
+            change[1] = ss;
+            return lt;
+        }
+
+        // Gauss-Seidel: updates the cells of one color in place. With all eight neighbors in the stencil, a
+        // checkerboard would leave diagonal neighbors in the same color, so cells are colored by (x & 1, y & 1)
+        // instead: no two neighbors share a color, each pass only reads cells no other leaf is writing, and
+        // four passes make one sweep.
+        private double sweepColor(int color) {
+            double[] a = A;
+            double omega = config.omega;
+            int firstCol = loCol + ((loCol ^ (color >> 1)) & 1);
+            int firstRow = loRow + ((loRow ^ color) & 1);
+            double lt = convergenceTemp;
+            double d = change[0], ss = change[1];
+            for (int i = firstCol; i <= hiCol; i += 2) {
+                for (int j = firstRow; j <= hiRow; j += 2) {
+                    int idx = i * height + j;
+                    if (!grid.isSource(idx)) {
+                        double old = a[idx];
+                        if (old < convergenceTemp) {
+                            int n = findNeighbors(i, j, a, idx, height, neighbors);
+                            double newTemp = calcNewTemp(i, j, idx, n);
+                            if (omega != 1.0)
+                                newTemp = Math.min(old + omega * (newTemp - old), hottestNeighbor(neighbors, n));
+                            a[idx] = newTemp;
+                            if (newTemp < lt) lt = newTemp;
+                            double delta = newTemp - old;
+                            d = Math.max(d, Math.abs(delta));
+                            ss += delta * delta;
+                        }
+                    }
+                }
+            }
+            change[0] = d;
+            change[1] = ss;
+            return lt;
+        }
+
+        // the temporal blocking buffers, on the first block unless a BarrierExecutor worker already did
+        void allocateBlocks() {
+            if (blockA != null || config.temporalBlock <= 1)
+                return;
+            int halo = config.temporalBlock;
+            int size = (Math.min(width, hiCol - loCol + 1 + 2 * halo)) * (Math.min(height, hiRow - loRow + 1 + 2 * halo));
+            blockA = new double[size];
+            blockB = new double[size];
+        }
+
+        // Temporal blocking: copies this tile plus a halo of temporalBlock cells out of both matrices, then runs k
+        // sweeps on the copy. Each sweep the still-correct part of the copy shrinks by a cell on every side, so after
+        // k sweeps exactly the tile is left, with the same values k plain sweeps would have produced. The tile is
+        // copied back in a second pass once every leaf is done reading, so the whole plate moves k sweeps per two
+        // passes over main memory instead of k.
+        private double sweepBlock(int k) {
+            int halo = config.temporalBlock;
+            int ox = Math.max(0, loCol - halo), ex = Math.min(width, hiCol + 1 + halo);
+            int oy = Math.max(0, loRow - halo), ey = Math.min(height, hiRow + 1 + halo);
+            int lh = ey - oy;
+            allocateBlocks();
+            blockAtoB = (steps & 1) == 0;
+            double[] a = blockAtoB ? A : B;
+            double[] b = blockAtoB ? B : A;
+            for (int i = ox; i < ex; i++) {
+                System.arraycopy(a, i * height + oy, blockA, (i - ox) * lh, lh);
+                System.arraycopy(b, i * height + oy, blockB, (i - ox) * lh, lh);
+            }
+
+            double lt = convergenceTemp;
+            for (int s = 1; s <= k; s++) {
+                double[] la = (s & 1) == 1 ? blockA : blockB;
+                double[] lb = (s & 1) == 1 ? blockB : blockA;
+                // cells still valid after s sweeps: the tile grown by k - s, clipped to the plate
+                int grow = k - s;
+                int x0 = Math.max(0, loCol - grow), x1 = Math.min(width - 1, hiCol + grow);
+                int y0 = Math.max(0, loRow - grow), y1 = Math.min(height - 1, hiRow + grow);
+                double slt = convergenceTemp;
+                for (int i = x0; i <= x1; ++i) {
+                    for (int j = y0; j <= y1; ++j) {
+                        int li = (i - ox) * lh + (j - oy);
+                        if (!grid.isSource(i * height + j)) {
+                            if (la[li] < convergenceTemp) {
+                                int n = findNeighbors(i, j, la, li, lh, neighbors);
+                                double newTemp = stencil.cell(neighbors, n, i == 0 || i == width - 1);
+                                if (s == k && i >= loCol && i <= hiCol && j >= loRow && j <= hiRow) {
+                                    if (newTemp < slt)
+                                        slt = newTemp;
+                                    // only the block's last sweep counts towards the residual
+                                    double delta = newTemp - previous(la[li], lb[li]);
+                                    change[0] = Math.max(change[0], Math.abs(delta));
+                                    change[1] += delta * delta;
+                                }
+                                lb[li] = newTemp;
+                            } else if (carryFrozen) {
+                                lb[li] = la[li];
+                            }
+                        }
+                    }
+                }
+                lt = slt;
+            }
+            steps += k;
+            // blockA now mirrors a and blockB mirrors b, whichever one the last sweep wrote
+            return lt;
+        }
+
+        private void writeBack() {
+            int halo = config.temporalBlock;
+            int ox = Math.max(0, loCol - halo);
+            int oy = Math.max(0, loRow - halo), ey = Math.min(height, hiRow + 1 + halo);
+            int lh = ey - oy;
+            double[] a = blockAtoB ? A : B;
+            double[] b = blockAtoB ? B : A;
+            int rows = hiRow - loRow + 1;
+            for (int i = loCol; i <= hiCol; i++) {
+                int li = (i - ox) * lh + (loRow - oy);
+                System.arraycopy(blockA, li, a, i * height + loRow, rows);
+                System.arraycopy(blockB, li, b, i * height + loRow, rows);
+            }
+        }
+
+        int cells() {
+            return (hiRow - loRow + 1) * (hiCol - loCol + 1);
+        }
+
+        // how far one Jacobi sweep with the given forcing (or none) would move cell (i, j) of a, 0 for cells a
+        // sweep skips
+        double defect(double[] a, int i, int j, double[] forcing) {
+            int idx = i * height + j;
+            if (grid.isSource(idx) || a[idx] >= convergenceTemp)
+                return 0;
+            int n = findNeighbors(i, j, a, idx, height, neighbors);
+            double newTemp = calcNewTemp(i, j, idx, n);
+            if (forcing != null)
+                newTemp += forcing[idx];
+            return a[idx] - newTemp;
+        }
+
+        // the update for cell (i, j) of the grid once findNeighbors has filled in its n neighbors; on a plate with
+        // a MaterialMap the same lookup on the coefficients lines each neighbor up with its weight
+        double calcNewTemp(int i, int j, int idx, int n) {
+            if (grid.coef == null)
+                return stencil.cell(neighbors, n, i == 0 || i == width - 1);
+            findNeighbors(i, j, grid.coef, idx, height, weights);
+            return weightedTemp(neighbors, weights, n);
+        }
+
+        // StencilKernel.Alloy when each neighbor has its own alloy: weights holds every neighbor's precomputed
+        // A_CONSTANT * aRatio + B_CONSTANT * bRatio + C_CONSTANT * cRatio (see MaterialMap.coefficients), so the
+        // three metal sums fold into one
+        double weightedTemp(double[] neighbors, double[] weights, int n) {
+            double newTemp = 0.0;
+            for (int i = 0; i < n; i++)
+                newTemp += neighbors[i] * weights[i];
+            return Math.min(newTemp / n, hottestNeighbor(neighbors, n));
+        }
+
+        // the original rule's clamp, also applied after over-relaxing and on material maps
+        double hottestNeighbor(double[] neighbors, int n) {
+            double hottestNeighbor = neighbors[0];
+            for(int i = 1; i < n-1; i++) {
+                if(neighbors[i] > hottestNeighbor)
+                    hottestNeighbor = neighbors[i];
+            }
+            return hottestNeighbor;
+        }
+
+        // fills neighbors with the temps around (i, j) and returns how many there are. idx is where (i, j) lives
+        // in a and stride the distance between columns, so the same lookup works on a tile copied out of the grid
+        int findNeighbors(int i, int j, double[] a, int idx, int stride, double[] neighbors) {
+            int maxwidth = width - 1;
+            int maxheight = height - 1;
+            if (i == 0 || i == maxwidth) {
+                if (j == 0 || j == maxheight) {
+                    // corner (3 neighbors)
+                    return getCornerNeighbors(neighbors, i, j, a, idx, stride);
+                } else {
+                    // top or bottom edge (5 neighbors)
+                    return getEdgeNeighbors(neighbors, i, j, a, idx, stride);
+                }
+            } else if (j == 0 || j == maxheight) {
+                // left or right edge (5 neighbors)
+                return getEdgeNeighbors(neighbors, i, j, a, idx, stride);
+            } else {
+                // inner (8 neighbors)
+                return getInnerNeighbors(neighbors, a, idx, stride);
+            }
+        }
+
+        private int getCornerNeighbors(double[] neighbors, int x, int y, double[] a, int idx, int stride) {
+            int dx = x == 0 ? stride : -stride; // towards the inside of the plate
+            int dy = y == 0 ? 1 : -1;
+            neighbors[0] = a[idx + dy];
+            neighbors[1] = a[idx + dx];
+            neighbors[2] = a[idx + dx + dy];
+            return 3;
+        }
+
+        private int getEdgeNeighbors(double[] neighbors, int x, int y, double[] a, int idx, int stride) {
+            int maxwidth = width - 1;
+            if (x == 0) {
+                neighbors[0] = a[idx - 1];
+                neighbors[1] = a[idx + stride - 1];
+                neighbors[2] = a[idx + stride];
+                neighbors[3] = a[idx + stride + 1];
+                neighbors[4] = a[idx + 1];
+            } else if (x == maxwidth) {
+                neighbors[0] = a[idx + 1];
+                neighbors[1] = a[idx - stride + 1];
+                neighbors[2] = a[idx - stride];
+                neighbors[3] = a[idx - stride - 1];
+                neighbors[4] = a[idx - 1];
+            } else if (y == 0) {
+                neighbors[0] = a[idx - stride];
+                neighbors[1] = a[idx - stride + 1];
+                neighbors[2] = a[idx + 1];
+                neighbors[3] = a[idx + stride + 1];
+                neighbors[4] = a[idx + stride];
+            } else {
+                neighbors[0] = a[idx + stride];
+                neighbors[1] = a[idx + stride - 1];
+                neighbors[2] = a[idx - 1];
+                neighbors[3] = a[idx - stride - 1];
+                neighbors[4] = a[idx - stride];
+            }
+            return 5;
+        }
+
+        private int getInnerNeighbors(double[] neighbors, double[] a, int idx, int stride) {
+            neighbors[0] = a[idx - stride + 1];
+            neighbors[1] = a[idx - stride];
+            neighbors[2] = a[idx - stride - 1];
+            neighbors[3] = a[idx - 1];
+            neighbors[4] = a[idx + stride - 1];
+            neighbors[5] = a[idx + stride];
+            neighbors[6] = a[idx + stride + 1];
+            neighbors[7] = a[idx + 1];
+            return 8;
+        }
+    }
+
+    final class FourNode extends MatrixTree {
+        MatrixTree q1;
+        MatrixTree q2;
+        MatrixTree q3;
+        MatrixTree q4;
+
+        FourNode(CountedCompleter<?> p) {
+            super(p, 3);
+        }
+
+        public void onCompletion(CountedCompleter<?> caller) {
+            double lt = q1.lowestTemp, l;
+            if ((l = q2.lowestTemp) < lt)
+                lt = l;
+            if ((l = q3.lowestTemp) < lt)
+                lt = l;
+            if ((l = q4.lowestTemp) < lt)
+                lt = l;
+            lowestTemp = lt;
+            maxDelta = Math.max(Math.max(q1.maxDelta, q2.maxDelta), Math.max(q3.maxDelta, q4.maxDelta));
+            sumSquares = q1.sumSquares + q2.sumSquares + q3.sumSquares + q4.sumSquares;
+            setPendingCount(3);
+        }
+
+        public final void compute() {
+            if (!config.trackActivity()) {
+                q4.fork();
+                q3.fork();
+                q2.fork();
+                q1.compute();
+                return;
+            }
+            // only the scheduled quadrants run, the rest keep their last lowestTemp. Pending count has to be
+            // right before the first fork, a fast child could otherwise complete this node early.
+            setPendingCount((q1.scheduled ? 1 : 0) + (q2.scheduled ? 1 : 0) + (q3.scheduled ? 1 : 0)
+                    + (q4.scheduled ? 1 : 0) - 1);
+            MatrixTree here = null;
+            if (q4.scheduled) here = q4;
+            if (q3.scheduled) { if (here != null) here.fork(); here = q3; }
+            if (q2.scheduled) { if (here != null) here.fork(); here = q2; }
+            if (q1.scheduled) { if (here != null) here.fork(); here = q1; }
+            here.compute();
+        }
+
+        void replace(MatrixTree child, MatrixTree with) {
+            if (q1 == child) q1 = with;
+            else if (q2 == child) q2 = with;
+            else if (q3 == child) q3 = with;
+            else if (q4 == child) q4 = with;
+        }
+    }
+
+    final class TwoNode extends MatrixTree {
+        MatrixTree q1;
+        MatrixTree q2;
+
+        TwoNode(CountedCompleter<?> p) {
+            super(p, 1);
+        }
+
+        public void onCompletion(CountedCompleter<?> caller) {
+            double lt = q1.lowestTemp, l;
+            if ((l = q2.lowestTemp) < lt)
+                lt = l;
+            lowestTemp = lt;
+            maxDelta = Math.max(q1.maxDelta, q2.maxDelta);
+            sumSquares = q1.sumSquares + q2.sumSquares;
+            setPendingCount(1);
+        }
+
+        public final void compute() {
+            if (!config.trackActivity()) {
+                q2.fork();
+                q1.compute();
+            } else if (q1.scheduled && q2.scheduled) {
+                setPendingCount(1);
+                q2.fork();
+                q1.compute();
+            } else {
+                // only one side is scheduled, see FourNode
+                setPendingCount(0);
+                (q1.scheduled ? q1 : q2).compute();
+            }
+        }
+
+        void replace(MatrixTree child, MatrixTree with) {
+            if (q1 == child) q1 = with;
+            else if (q2 == child) q2 = with;
+        }
+    }
+
+    final class Driver extends RecursiveAction {
+        MatrixTree mat;
+        final HeatGrid grid;
+        final int firstRow, lastRow, firstCol, lastCol;
+        int nleaf;
+        final int leafs;
+        long iterations;
+        boolean adjacencyStale = true; // leaves changed since the adjacent lists were built
+
+        Driver(HeatGrid grid,
+               int firstRow, int lastRow,
+               int firstCol, int lastCol,
+               int leafs) {
+            this.grid = grid;
+            this.firstRow = firstRow;
+            this.firstCol = firstCol;
+            this.lastRow = lastRow;
+            this.lastCol = lastCol;
+            this.leafs = leafs;
+            mat = build(null, grid, firstRow, lastRow, firstCol, lastCol, leafs);
+        }
+
+        MatrixTree build(MatrixTree p,
+                         HeatGrid g,
+                         int loRo, int hiRo, int loCol, int hiCol, int leafs) {
+            int rows = (hiRo - loRo);
+            int cols = (hiCol - loCol);
+
+            int midrow = (loRo + hiRo) >>> 1; // midpoints
+            int midcol = (loCol + hiCol) >>> 1;
+
+            int hrows = (midrow - loRo);
+            int hcols = (midcol - loCol);
+
+            if (rows * cols <= leafs) {
+                ++nleaf;
+                return new LeafNode(p, g, loRo, hiRo, loCol, hiCol);
+            } else if (hrows * hcols >= leafs) {
+                FourNode q = new FourNode(p);
+                q.q1 = build(q, g, loRo, midrow, loCol, midcol, leafs);  // quadrant 2 _|
+                q.q2 = build(q, g, loRo, midrow, midcol, hiCol, leafs);  // quadrant 1 |_
+                q.q3 = build(q, g, midrow, hiRo, loCol, midcol, leafs);  // quadrant 3
+                q.q4 = build(q, g, midrow, hiRo, midcol, hiCol, leafs);  // quadrant 4
+                return q;
+            } else if (cols >= rows) {
+                TwoNode q = new TwoNode(p);
+                q.q1 = build(q, g, loRo, hiRo, loCol, midcol, leafs);
+                q.q2 = build(q, g, loRo, hiRo, midcol, hiCol, leafs);
+                return q;
+            } else {
+                TwoNode q = new TwoNode(p);
+                q.q1 = build(q, g, loRo, midrow, loCol, hiCol, leafs);
+                q.q2 = build(q, g, midrow, hiRo, loCol, hiCol, leafs);
+                return q;
+            }
+        }
+
+        // Iterates until the configured criterion holds, checked every checkInterval iterations. The check only
+        // reads the root: the leaves' lowest temps and residuals were reduced up the tree as the sweep's
+        // completions propagated, so it costs no extra pass over the plate and no extra barrier.
+        void doCompute() {
+            SolverMetrics.RunEvent event = SolverMetrics.runStarted();
+            metrics.loopStarted(getPool());
+            long sinceCheck = 0;
+            boolean done = false;
+            while (sweeps < config.maxSweeps && !settled) {
+                iterate();
+                if (!config.ignoreConvergence && ++sinceCheck >= config.checkInterval) {
+                    sinceCheck = 0;
+                    if (done = converged(mat))
+                        break;
+                }
+            }
+            metrics.loopEnded(event, done);
+        }
+
+        // one pass of whichever scheme is configured: a Jacobi sweep, a colored Gauss-Seidel sweep or a
+        // temporal block of several sweeps
+        void iterate() {
+            SolverMetrics.SweepEvent event = SolverMetrics.sweepStarted();
+            MatrixTree m = mat;
+            if (config.trackActivity() && !schedule(m)) {
+                // no tile changed, so no further sweep can change anything
+                settled = true;
+                return;
+            }
+            for (int p = 0, n = passes(); p < n; p++) {
+                startPass(p);
+                runTree(m);
+            }
+            finishIteration(m, event);
+        }
+
+        // tree runs per iteration: a Gauss-Seidel sweep takes one per color, a temporal block one for the
+        // sweeps and one to copy the tiles back (only started once no leaf reads the matrices anymore)
+        int passes() {
+            if (config.solver == SimulationConfig.Solver.GAUSS_SEIDEL)
+                return 4;
+            return config.temporalBlock > 1 ? 2 : 1;
+        }
+
+        // tells the leaves what pass p of an iteration is
+        void startPass(int p) {
+            if (config.solver == SimulationConfig.Solver.GAUSS_SEIDEL) {
+                color = p;
+            } else if (config.temporalBlock > 1) {
+                if (p == 0)
+                    blockSteps = (int) Math.min(config.temporalBlock, config.maxSweeps - sweeps);
+                writingBack = p == 1;
+            }
+        }
+
+        // after the last pass, once m holds the iteration's reduced lowest temp and residuals
+        void finishIteration(MatrixTree m, SolverMetrics.SweepEvent event) {
+            sweeps += config.solver != SimulationConfig.Solver.GAUSS_SEIDEL && config.temporalBlock > 1 ? blockSteps : 1;
+            if (firstResidual < 0)
+                firstResidual = residual(m);
+            metrics.swept(m, event);
+            for (SweepListener l : listeners)
+                l.sweepCompleted(grid, grid.latest(sweeps), sweeps);
+            if (config.adaptive && ++iterations % config.rebalanceInterval == 0)
+                rebalance(m);
+        }
+
+        // Activity tracking: marks every leaf that changed last sweep or borders one that did, and every subtree
+        // holding such a leaf, as scheduled, and returns whether anything is. A skipped leaf's input is within
+        // activityEpsilon of what it was last sweep, so the matrix it would write already holds (nearly) what
+        // it would write there; with epsilon 0 the field is the same as without tracking. Skipped leaves still
+        // count the sweep to stay in step with the matrices.
+        private boolean schedule(MatrixTree m) {
+            if (adjacencyStale)
+                linkAdjacent();
+            return mark(m);
+        }
+
+        private boolean mark(MatrixTree m) {
+            boolean run = false;
+            if (m instanceof LeafNode) {
+                LeafNode l = (LeafNode) m;
+                run = l.active;
+                for (LeafNode n : l.adjacent)
+                    run |= n.active;
+                if (run) {
+                    ++leafSweeps;
+                } else {
+                    ++l.steps;
+                    ++skippedLeafSweeps;
+                }
+            } else {
+                for (MatrixTree c : children(m))
+                    run |= mark(c);
+            }
+            m.scheduled = run;
+            return run;
+        }
+
+        // leaves are adjacent if one's cells are within a cell of the other's, diagonals included
+        void linkAdjacent() {
+            List<LeafNode> leaves = new ArrayList<>(nleaf);
+            collectLeaves(mat, leaves);
+            List<LeafNode> adj = new ArrayList<>();
+            for (LeafNode l : leaves) {
+                adj.clear();
+                for (LeafNode o : leaves) {
+                    if (o != l && o.loCol <= l.hiCol + 1 && o.hiCol >= l.loCol - 1
+                            && o.loRow <= l.hiRow + 1 && o.hiRow >= l.loRow - 1)
+                        adj.add(o);
+                }
+                l.adjacent = adj.toArray(new LeafNode[0]);
+            }
+            adjacencyStale = false;
+        }
+
+        private void runTree(MatrixTree m) {
+            // reset to the root's own fan-out; a TwoNode or LeafNode root never completes if given 3
+            m.setPendingCount(m.forks);
+            long start = System.nanoTime();
+            m.invoke();
+            long invoked = System.nanoTime();
+            m.reinitialize();
+            metrics.treeRan(invoked - start, System.nanoTime() - invoked);
+        }
+
+        // Re-splits leaves that take more than twice their share of a sweep and merges sibling leaves that
+        // together take less than half of it, so the tree keeps about oversubscription leaves of equal cost per
+        // worker as the hot front moves. Runs between sweeps, so nothing is being computed while it rewires.
+        MatrixTree rebalance(MatrixTree m) {
+            List<LeafNode> leaves = new ArrayList<>(nleaf);
+            collectLeaves(m, leaves);
+            double total = 0;
+            for (LeafNode l : leaves)
+                total += l.cost;
+            if (total <= 0)
+                return m;
+            double target = total / (config.effectiveParallelism() * config.oversubscription);
+            MatrixTree root = rebalance(m, target);
+            if (root != m) {
+                root.lowestTemp = m.lowestTemp;
+                root.maxDelta = m.maxDelta;
+                root.sumSquares = m.sumSquares;
+                mat = root;
+            }
+            leaves.clear();
+            collectLeaves(root, leaves);
+            nleaf = leaves.size();
+            ++rebalances;
+            adjacencyStale = true;
+            return root;
+        }
+
+        private MatrixTree rebalance(MatrixTree m, double target) {
+            if (m instanceof LeafNode) {
+                LeafNode l = (LeafNode) m;
+                int cells = l.cells();
+                if (l.cost <= 2 * target || cells < 2 * MIN_ADAPTIVE_LEAF)
+                    return m;
+                // pieces sized so each should take about one target's worth of time
+                int pieceCells = Math.max(MIN_ADAPTIVE_LEAF, (int) (cells * target / l.cost));
+                double pieceCost = l.cost * pieceCells / cells;
+                MatrixTree split = build((MatrixTree) l.getCompleter(), grid,
+                        l.loRow, l.hiRow + 1, l.loCol, l.hiCol + 1, pieceCells);
+                List<LeafNode> pieces = new ArrayList<>();
+                collectLeaves(split, pieces);
+                for (LeafNode piece : pieces) {
+                    piece.cost = pieceCost;
+                    piece.lowestTemp = l.lowestTemp;
+                    piece.maxDelta = l.maxDelta;
+                    piece.sumSquares = l.sumSquares * piece.cells() / cells;
+                }
+                return split;
+            }
+            MatrixTree[] children = children(m);
+            double sum = 0;
+            boolean allLeaves = true;
+            for (MatrixTree c : children) {
+                if (c instanceof LeafNode)
+                    sum += ((LeafNode) c).cost;
+                else
+                    allLeaves = false;
+            }
+            if (allLeaves && sum < target / 2) {
+                // children of a split always tile a rectangle, so their union is one leaf
+                int loRo = Integer.MAX_VALUE, hiRo = 0, loCo = Integer.MAX_VALUE, hiCo = 0;
+                double lt = Double.MAX_VALUE, md = 0, ss = 0;
+                for (MatrixTree c : children) {
+                    LeafNode l = (LeafNode) c;
+                    loRo = Math.min(loRo, l.loRow);
+                    hiRo = Math.max(hiRo, l.hiRow + 1);
+                    loCo = Math.min(loCo, l.loCol);
+                    hiCo = Math.max(hiCo, l.hiCol + 1);
+                    lt = Math.min(lt, l.lowestTemp);
+                    md = Math.max(md, l.maxDelta);
+                    ss += l.sumSquares;
+                }
+                LeafNode merged = new LeafNode(m.getCompleter(), grid, loRo, hiRo, loCo, hiCo);
+                merged.cost = sum;
+                merged.lowestTemp = lt;
+                merged.maxDelta = md;
+                merged.sumSquares = ss;
+                return merged;
+            }
+            for (MatrixTree c : children) {
+                MatrixTree r = rebalance(c, target);
+                if (r != c)
+                    m.replace(c, r);
+            }
+            return m;
+        }
+
+        // cells in the tree's biggest leaf right now
+        int largestLeaf() {
+            List<LeafNode> leaves = new ArrayList<>(nleaf);
+            collectLeaves(mat, leaves);
+            int largest = 0;
+            for (LeafNode l : leaves)
+                largest = Math.max(largest, l.cells());
+            return largest;
+        }
+
+        MatrixTree[] children(MatrixTree m) {
+            if (m instanceof FourNode) {
+                FourNode q = (FourNode) m;
+                return new MatrixTree[] { q.q1, q.q2, q.q3, q.q4 };
+            } else if (m instanceof TwoNode) {
+                TwoNode q = (TwoNode) m;
+                return new MatrixTree[] { q.q1, q.q2 };
+            }
+            return new MatrixTree[0];
+        }
+
+        void collectLeaves(MatrixTree m, List<LeafNode> out) {
+            if (m instanceof LeafNode)
+                out.add((LeafNode) m);
+            else
+                for (MatrixTree c : children(m))
+                    collectLeaves(c, out);
+        }
+
+        public void compute() {
+            doCompute();
+        }
+    }
+}
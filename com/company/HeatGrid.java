@@ -0,0 +1,72 @@
+package com.company;
+
+// Flat primitive storage for the plate. Temperatures are kept in two column-major double[] buffers that the
+// solver ping-pongs between (cell (x, y) lives at x * height + y, so walking down a column is a linear scan),
+// and heat sources are kept in a bitmask so a sweep never has to touch an object per cell.
+
+import java.util.Arrays;
+
+public class HeatGrid {
+    final int width, height;
+    final double[] A; // matrix read on even steps
+    final double[] B; // matrix read on odd steps
+    final long[] sources; // one bit per cell, set if the cell is a heat source
+    double[] coef; // each cell's weight as a neighbor when the plate has a MaterialMap, null for a uniform plate
+    double[] forcing; // added to every Jacobi update when set, only used on MultigridSolver's coarse plates
+    // whether the matrix a sweep wrote stays untouched until the sweep after next starts, see
+    // HeatEngine.SweepListener; not in place, and not when temporal blocks write both matrices back
+    boolean keepsCurrent;
+
+    public HeatGrid(int width, int height, double initialTemp) {
+        this(width, height, initialTemp, false);
+    }
+
+    // in-place solvers only need one matrix; B is then just another name for A
+    HeatGrid(int width, int height, double initialTemp, boolean singleMatrix) {
+        // checked before anything is sized from it, width * height in int wraps around past 2^31 cells
+        long size = (long) width * height;
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("plate must be at least 1x1, got " + width + "x" + height);
+        if (size > SimulationConfig.MAX_HEAP_CELLS)
+            throw new IllegalArgumentException(width + "x" + height + " is " + size + " cells, more than an array holds ("
+                    + SimulationConfig.MAX_HEAP_CELLS + "), use off-heap storage");
+        this.width = width;
+        this.height = height;
+        int cells = (int) size;
+        A = new double[cells];
+        B = singleMatrix ? A : new double[cells];
+        keepsCurrent = !singleMatrix;
+        sources = new long[(int) ((size + 63) >>> 6)];
+        Arrays.fill(A, initialTemp);
+        Arrays.fill(B, initialTemp);
+    }
+
+    final int index(int x, int y) {
+        return x * height + y;
+    }
+
+    // marks (x, y) as a heat source held at temp in both matrices
+    public void addSource(int x, int y, double temp) {
+        int idx = index(x, y);
+        A[idx] = temp;
+        B[idx] = temp;
+        sources[idx >>> 6] |= 1L << idx;
+    }
+
+    public final boolean isSource(int idx) {
+        return (sources[idx >>> 6] & (1L << idx)) != 0;
+    }
+
+    // the matrix written by the given (1-based) sweep; A before the first sweep
+    final double[] latest(long sweeps) {
+        return (sweeps & 1) == 1 ? B : A;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,112 @@
+package com.company;
+
+// Turns a temperature field into an image in one pass. Each cell becomes one pixel of an int[] raster that
+// backs a BufferedImage, with its color looked up in a table built once for the given redhottemp, so painting
+// a frame is a single drawImage instead of a Color and a fillRect per cell. The image can be blown up when
+// drawn (10px cells like the original display) and large plates are filled in parallel, in the fork-join pool
+// render is called from (RenderPipeline's own); from any other thread they're filled serially, so rendering
+// never lands on the common pool the solver may be sweeping in.
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+public class HeatRenderer {
+    static final int LUT_SIZE = 4096;
+    // below this many cells the fork-join overhead isn't worth it
+    static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    final int width, height;
+    final float redhottemp;
+    final int[] lut;
+    final double lutScale; // table entries per degree
+    final BufferedImage image;
+    final int[] raster; // row-major, pixel (x, y) at y * width + x
+    int cellSize;
+
+    public HeatRenderer(float redhottemp, int width, int height, int cellSize) {
+        this.redhottemp = redhottemp;
+        this.width = width;
+        this.height = height;
+        this.cellSize = cellSize;
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        raster = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+        lut = new int[LUT_SIZE];
+        lutScale = (LUT_SIZE - 1) / (double) redhottemp;
+        for (int i = 0; i < LUT_SIZE; i++) {
+            float temp = (float) (i / lutScale);
+            // in HSB, 0.6 results in blue while red is at 0 and 1. this formula bounds the result (using the temperature
+            // of the region) to the range of .7 to 0. The temperature at which it turns red can be changed by changing redhottemp.
+            float hue = ((redhottemp - temp) / redhottemp) * .7f;
+            if (hue < 0) // 0 = red
+                hue = 0;
+            lut[i] = Color.HSBtoRGB(hue, .8f, 1);
+        }
+    }
+
+    final int color(double temp) {
+        int i = (int) (temp * lutScale);
+        if (i < 0)
+            i = 0;
+        else if (i >= LUT_SIZE)
+            i = LUT_SIZE - 1; // anything at or past redhottemp is red
+        return lut[i];
+    }
+
+    // fills the raster from a frame of the whole plate
+    public void render(FramePublisher.Frame f) {
+        render(f.temps);
+    }
+
+    // fills the raster from a column-major field (cell (x, y) at x * height + y)
+    public void render(double[] temps) {
+        if (width * height < PARALLEL_THRESHOLD || !ForkJoinTask.inForkJoinPool())
+            fill(temps, 0, width);
+        else
+            new Fill(temps, 0, width).invoke();
+    }
+
+    void fill(double[] temps, int loCol, int hiCol) {
+        for (int x = loCol; x < hiCol; x++) {
+            int src = x * height;
+            for (int y = 0, dst = x; y < height; y++, dst += width)
+                raster[dst] = color(temps[src + y]);
+        }
+    }
+
+    final class Fill extends RecursiveAction {
+        final double[] temps;
+        final int loCol, hiCol;
+
+        Fill(double[] temps, int loCol, int hiCol) {
+            this.temps = temps;
+            this.loCol = loCol;
+            this.hiCol = hiCol;
+        }
+
+        protected void compute() {
+            if ((hiCol - loCol) * height <= PARALLEL_THRESHOLD || hiCol - loCol < 2) {
+                fill(temps, loCol, hiCol);
+            } else {
+                int mid = (loCol + hiCol) >>> 1;
+                invokeAll(new Fill(temps, loCol, mid), new Fill(temps, mid, hiCol));
+            }
+        }
+    }
+
+    // blits the last rendered frame, each cell cellSize pixels wide
+    public void draw(Graphics g) {
+        g.drawImage(image, 0, 0, width * cellSize, height * cellSize, null);
+    }
+
+    public void setCellSize(int cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+}
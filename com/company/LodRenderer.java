@@ -0,0 +1,244 @@
+package com.company;
+
+// Draws a plate of any size at the panel's own resolution, for plates with more cells than the screen has
+// pixels. A Viewport says which part of the plate is shown and how many cells go into each pixel; each pixel
+// is the mean (or the hottest) of the cells under it, so a hot spot smaller than a pixel still shows up in MAX
+// mode. Zoomed in past one cell per pixel, a cell simply covers several pixels.
+//
+// The reduction is a Publisher's fill, with whatever viewport the panel last set: only the cells inside it are
+// read, and a frame is a mean and a max per pixel instead of a copy of the plate. So a frame costs the visible
+// cells rather than the whole plate, in time and in memory, and the renderer just colors pixels. It normally
+// runs as the render pipeline takes the frame, and on the solver's side between sweeps when the pipeline falls
+// behind (see FramePublisher). Pixel columns are reduced in parallel when a pool is there to help, each walking
+// its cells' columns top to bottom in memory order.
+//
+// A frame is only good for the view it was reduced for. While the solver runs a changed view shows from the
+// next frame on; once it's done, the final frame carries the plate itself and the renderer reduces that.
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class LodRenderer extends HeatRenderer {
+    static final int BACKGROUND = 0; // pixels past the plate's edge
+
+    public enum Mode {
+        MEAN,
+        MAX
+    }
+
+    // The part of the plate shown: (x0, y0) is the plate position of the view's top left corner and scale the
+    // cells per pixel along each side. Immutable, zooming and panning make a new one.
+    public static final class Viewport {
+        final int plateWidth, plateHeight; // cells
+        final int width, height; // pixels
+        final double x0, y0, scale;
+        final Mode mode;
+        // the cells under each pixel column and row: colLo[px] until colHi[px], empty off the plate
+        private final int[] colLo, colHi, rowLo, rowHi;
+
+        Viewport(int plateWidth, int plateHeight, int width, int height, double x0, double y0, double scale, Mode mode) {
+            this.plateWidth = plateWidth;
+            this.plateHeight = plateHeight;
+            this.width = width;
+            this.height = height;
+            // no further in than 64 pixels per cell, no further out than the whole plate
+            this.scale = Math.max(1 / 64.0, Math.min(scale, fitScale(plateWidth, plateHeight, width, height)));
+            this.x0 = clamp(x0, plateWidth, width * this.scale);
+            this.y0 = clamp(y0, plateHeight, height * this.scale);
+            this.mode = mode;
+            colLo = new int[width];
+            colHi = new int[width];
+            rowLo = new int[height];
+            rowHi = new int[height];
+            edges(this.x0, this.scale, plateWidth, colLo, colHi);
+            edges(this.y0, this.scale, plateHeight, rowLo, rowHi);
+        }
+
+        // the whole plate, centered
+        public static Viewport fit(int plateWidth, int plateHeight, int width, int height, Mode mode) {
+            return new Viewport(plateWidth, plateHeight, width, height, 0, 0,
+                    fitScale(plateWidth, plateHeight, width, height), mode);
+        }
+
+        private static double fitScale(int plateWidth, int plateHeight, int width, int height) {
+            return Math.max((double) plateWidth / width, (double) plateHeight / height);
+        }
+
+        // keeps the view on the plate, or centers the plate if the view is wider
+        private static double clamp(double origin, int cells, double shown) {
+            if (shown >= cells)
+                return (cells - shown) / 2;
+            return Math.max(0, Math.min(origin, cells - shown));
+        }
+
+        // factor > 1 zooms out, keeping the cell under pixel (px, py) where it is
+        public Viewport zoomed(double factor, int px, int py) {
+            double s = scale * factor;
+            return new Viewport(plateWidth, plateHeight, width, height, x0 + px * (scale - s), y0 + py * (scale - s), s, mode);
+        }
+
+        // moves the plate by (dx, dy) pixels, like dragging it
+        public Viewport panned(int dx, int dy) {
+            return new Viewport(plateWidth, plateHeight, width, height, x0 - dx * scale, y0 - dy * scale, scale, mode);
+        }
+
+        public Viewport withMode(Mode mode) {
+            return new Viewport(plateWidth, plateHeight, width, height, x0, y0, scale, mode);
+        }
+
+        public Viewport refit() {
+            return fit(plateWidth, plateHeight, width, height, mode);
+        }
+
+        // the cells under each pixel along one side: lo[i] until hi[i], empty off the plate
+        private static void edges(double origin, double scale, int cells, int[] lo, int[] hi) {
+            for (int i = 0; i < lo.length; i++) {
+                int from = (int) Math.floor(origin + i * scale);
+                int to = Math.max(from + 1, (int) Math.floor(origin + (i + 1) * scale));
+                lo[i] = Math.max(0, from);
+                hi[i] = Math.min(cells, to);
+            }
+        }
+
+        // about how many cells a reduction reads, counting those read for several pixels once each time
+        long visibleCells() {
+            return (long) visible(colLo, colHi) * visible(rowLo, rowHi);
+        }
+
+        private static int visible(int[] lo, int[] hi) {
+            int n = 0;
+            for (int i = 0; i < lo.length; i++)
+                n += Math.max(0, hi[i] - lo[i]);
+            return n;
+        }
+
+        // Reduces pixel columns loPx until hiPx of a column-major plate (cell (x, y) at x * plateHeight + y) into
+        // into, column-major as well so each pixel column is written in one run: pixel (px, py)'s mean at
+        // px * height + py and its max width * height further on, NaN where the pixel is off the plate.
+        void reduce(double[] temps, double[] into, int loPx, int hiPx) {
+            int pixels = width * height;
+            double[] sum = new double[height], max = new double[height];
+            for (int px = loPx; px < hiPx; px++) {
+                int xs = colLo[px], xe = colHi[px];
+                if (xs >= xe) {
+                    Arrays.fill(into, px * height, (px + 1) * height, Double.NaN);
+                    Arrays.fill(into, pixels + px * height, pixels + (px + 1) * height, Double.NaN);
+                    continue;
+                }
+                Arrays.fill(sum, 0);
+                Arrays.fill(max, Double.NEGATIVE_INFINITY);
+                for (int x = xs; x < xe; x++) {
+                    int col = x * plateHeight;
+                    for (int py = 0; py < height; py++) {
+                        double s = sum[py], m = max[py];
+                        for (int y = rowLo[py], ye = rowHi[py]; y < ye; y++) {
+                            double t = temps[col + y];
+                            s += t;
+                            if (t > m)
+                                m = t;
+                        }
+                        sum[py] = s;
+                        max[py] = m;
+                    }
+                }
+                for (int py = 0, dst = px * height; py < height; py++, dst++) {
+                    int n = rowHi[py] - rowLo[py];
+                    if (n <= 0) {
+                        into[dst] = into[pixels + dst] = Double.NaN;
+                    } else {
+                        into[dst] = sum[py] / ((double) n * (xe - xs));
+                        into[pixels + dst] = max[py];
+                    }
+                }
+            }
+        }
+    }
+
+    // Frames of the view the panel last set, reduced as they're filled (see the top).
+    public static final class Publisher extends FramePublisher {
+        final AtomicReference<Viewport> view;
+
+        public Publisher(AtomicReference<Viewport> view, double fps, Runnable onFrame) {
+            super(2 * view.get().width * view.get().height, fps, onFrame);
+            this.view = view;
+        }
+
+        @Override
+        void fill(Frame f, double[] current) {
+            Viewport v = view.get();
+            reduce(v, current, f.temps);
+            f.view = v;
+        }
+    }
+
+    // in parallel when called from a fork-join worker, i.e. the render pipeline's or the solver's between sweeps;
+    // serially otherwise
+    static void reduce(Viewport v, double[] temps, double[] into) {
+        long cells = v.visibleCells();
+        if (cells >= PARALLEL_THRESHOLD && ForkJoinTask.inForkJoinPool())
+            new Reduce(v, temps, into, 0, v.width, cells).invoke();
+        else
+            v.reduce(temps, into, 0, v.width);
+    }
+
+    final AtomicReference<Viewport> view; // shared with the panel, which replaces it to zoom and pan
+
+    public LodRenderer(float redhottemp, AtomicReference<Viewport> view) {
+        super(redhottemp, view.get().width, view.get().height, 1);
+        this.view = view;
+    }
+
+    // colors a frame from a Publisher, in the current view's mode
+    @Override
+    public void render(FramePublisher.Frame f) {
+        Viewport v = view.get();
+        if (f.view != v && f.settled != null) {
+            // the run is over and the view changed since: the frame is ours until the next take(), reduce again
+            reduce(v, f.settled, f.temps);
+            f.view = v;
+        }
+        double[] t = f.temps;
+        for (int px = 0, src = v.mode == Mode.MAX ? width * height : 0; px < width; px++) {
+            for (int py = 0, dst = px; py < height; py++, dst += width, src++) {
+                double temp = t[src];
+                raster[dst] = Double.isNaN(temp) ? BACKGROUND : color(temp);
+            }
+        }
+    }
+
+    // a whole plate in one go, e.g. for a snapshot outside the pipeline
+    @Override
+    public void render(double[] temps) {
+        FramePublisher.Frame f = new FramePublisher.Frame(2 * width * height);
+        f.settled = temps;
+        render(f);
+    }
+
+    static final class Reduce extends RecursiveAction {
+        final Viewport v;
+        final double[] temps, into;
+        final int loPx, hiPx;
+        final long cells; // about how many cells these pixel columns read
+
+        Reduce(Viewport v, double[] temps, double[] into, int loPx, int hiPx, long cells) {
+            this.v = v;
+            this.temps = temps;
+            this.into = into;
+            this.loPx = loPx;
+            this.hiPx = hiPx;
+            this.cells = cells;
+        }
+
+        protected void compute() {
+            if (cells <= PARALLEL_THRESHOLD || hiPx - loPx < 2) {
+                v.reduce(temps, into, loPx, hiPx);
+            } else {
+                int mid = (loPx + hiPx) >>> 1;
+                invokeAll(new Reduce(v, temps, into, loPx, mid, cells / 2),
+                        new Reduce(v, temps, into, mid, hiPx, cells - cells / 2));
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.company;
+
+// Which alloy each cell of the plate is made of, for plates that aren't one uniform alloy. A small palette of
+// materials (each its own A/B/C ratios) and one palette index per cell, loaded from a mask: a CSV laid out like
+// HeatCli's --out (one row per y, one value per x), or an image where each color is a material. A mask of a
+// different size than the plate is stretched over it, nearest cell.
+//
+// The update rule gives every neighbor a weight of constant * ratio summed over the three metals, and that only
+// depends on the neighbor's own alloy. So rather than three metal sums per cell per sweep, the engine asks for
+// coefficients() once and every update is a single weighted sum of the neighbors, see LeafNode.weightedTemp.
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MaterialMap implements Serializable {
+    private static final long serialVersionUID = 1L;
+    static final int MAX_MATERIALS = 256;
+
+    final int width, height;
+    final byte[] cells; // palette index per cell, column-major like HeatGrid
+    final double[][] ratios; // per material: A, B and C ratio
+
+    MaterialMap(int width, int height, byte[] cells, double[][] ratios) {
+        this.width = width;
+        this.height = height;
+        this.cells = cells;
+        this.ratios = ratios;
+    }
+
+    // Loads a mask for a width x height plate. palette maps each value in the mask (the CSV field, or the
+    // color as six hex digits like "ff8000") to that material's A, B and C ratios; every value has to be in it.
+    public static MaterialMap load(Path file, int width, int height, Map<String, double[]> palette) throws IOException {
+        if (palette.isEmpty() || palette.size() > MAX_MATERIALS)
+            throw new IllegalArgumentException("need between 1 and " + MAX_MATERIALS + " materials, got " + palette.size());
+        Map<String, Integer> index = new LinkedHashMap<>();
+        double[][] ratios = new double[palette.size()][];
+        for (Map.Entry<String, double[]> e : palette.entrySet()) {
+            ratios[index.size()] = e.getValue().clone();
+            index.put(e.getKey().toLowerCase(), index.size());
+        }
+        String[][] mask = file.getFileName().toString().toLowerCase().endsWith(".csv") ? readCsv(file) : readImage(file);
+        int mh = mask.length, mw = mask[0].length;
+        byte[] cells = new byte[width * height];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                String key = mask[(int) ((long) y * mh / height)][(int) ((long) x * mw / width)];
+                Integer m = index.get(key);
+                if (m == null)
+                    throw new IllegalArgumentException(file + " uses material " + key + ", which has no ratios");
+                cells[x * height + y] = (byte) (int) m;
+            }
+        }
+        return new MaterialMap(width, height, cells, ratios);
+    }
+
+    // rows of trimmed fields, lower case
+    private static String[][] readCsv(Path file) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        try (BufferedReader r = Files.newBufferedReader(file)) {
+            for (String line; (line = r.readLine()) != null; ) {
+                if (line.trim().isEmpty())
+                    continue;
+                String[] row = line.split(",");
+                for (int i = 0; i < row.length; i++)
+                    row[i] = row[i].trim().toLowerCase();
+                if (!rows.isEmpty() && row.length != rows.get(0).length)
+                    throw new IOException(file + ": row " + (rows.size() + 1) + " has " + row.length + " fields, not "
+                            + rows.get(0).length);
+                rows.add(row);
+            }
+        }
+        if (rows.isEmpty())
+            throw new IOException(file + " is empty");
+        return rows.toArray(new String[0][]);
+    }
+
+    // rows of pixel colors as rrggbb
+    private static String[][] readImage(Path file) throws IOException {
+        BufferedImage img = ImageIO.read(file.toFile());
+        if (img == null)
+            throw new IOException(file + " is neither a .csv nor an image ImageIO can read");
+        String[][] rows = new String[img.getHeight()][img.getWidth()];
+        for (int y = 0; y < rows.length; y++)
+            for (int x = 0; x < rows[y].length; x++)
+                rows[y][x] = String.format("%06x", img.getRGB(x, y) & 0xFFFFFF);
+        return rows;
+    }
+
+    // Each cell's weight as a neighbor, aConstant * aRatio + bConstant * bRatio + cConstant * cRatio for its
+    // material, column-major like the grid.
+    double[] coefficients(double aConstant, double bConstant, double cConstant) {
+        double[] perMaterial = new double[ratios.length];
+        for (int m = 0; m < ratios.length; m++)
+            perMaterial[m] = aConstant * ratios[m][0] + bConstant * ratios[m][1] + cConstant * ratios[m][2];
+        double[] coef = new double[cells.length];
+        for (int i = 0; i < cells.length; i++)
+            coef[i] = perMaterial[cells[i] & 0xFF];
+        return coef;
+    }
+
+    // a hash of the mask and the materials' ratios, so a checkpoint can tell whether it's being restored onto
+    // the same map
+    long fingerprint() {
+        long h = 31L * width + height;
+        h = 31 * h + Arrays.hashCode(cells);
+        return 31 * h + Arrays.deepHashCode(ratios);
+    }
+
+    // columns from..to-1, for a slab of a DistributedRun
+    MaterialMap columns(int from, int to) {
+        byte[] slab = new byte[(to - from) * height];
+        System.arraycopy(cells, from * height, slab, 0, slab.length);
+        return new MaterialMap(to - from, height, slab, ratios);
+    }
+
+    public int materials() {
+        return ratios.length;
+    }
+}
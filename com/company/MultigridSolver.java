@@ -0,0 +1,243 @@
+package com.company;
+
+// Geometric multigrid on top of HeatEngine. With plain Jacobi, heat crawls out of the sources one cell per sweep,
+// so the sweeps needed grow with the plate. Here the plate is repeatedly halved into coarser plates (each coarse
+// cell stands for a 2x2 block, sources keep their temps), and every level runs the usual fork-join Jacobi tree as
+// its smoother. A cycle smooths the fine plate, restricts it onto the next coarser one, recurses, adds the change
+// the coarse plate went through back onto the fine cells it covers, and smooths again. Coarse plates carry heat
+// across the plate in a few cheap sweeps, the fine sweeps only have to fix the detail.
+//
+// The update rule clamps to the hottest neighbor, so it isn't linear, and a coarse plate simply relaxing the
+// restricted field would settle somewhere else than the fine plate and keep pulling it away. The coarse plates
+// therefore solve the full approximation scheme equation: each carries a forcing term, the difference between its
+// own defect on the restricted field and the restricted fine defect, which makes the restricted field a fixed
+// point exactly when the fine field is one. A coarse cell is twice as wide, so the same smooth error gives it four
+// times the defect a fine cell sees, and the restricted fine defect is scaled up by that much; left unscaled the
+// coarse plate only fixes a quarter of a smooth error per cycle.
+//
+// That only lands on the field plain Jacobi converges to if there is just one such field. There isn't when the
+// alloy's coefficients don't add up to 1 (each sweep then scales the plate up and only the clamp holds it, so the
+// clamp's history decides where it stops) or when cells freeze below the hottest source (which cells froze
+// depends on the path). SimulationConfig.validate() turns those plates away. On the others the coarse
+// corrections vanish as the fine plate converges. E.g. HeatCli --width 150 --height 100 --constants 1,1,1
+// --redhot 1000 --convergence max-delta --tolerance 1e-6 takes 133 V-cycles, 532 fine sweeps and about 716 sweeps'
+// worth of work on all levels with --solver multigrid, against 602901 plain Jacobi sweeps.
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+public class MultigridSolver {
+    // coarsening stops before a plate gets smaller than this on either side
+    static final int MIN_LEVEL_SIZE = 4;
+    static final int PARALLEL_THRESHOLD = 1 << 15;
+    // a coarse cell's defect for a smooth error, per fine cell's: the side doubles, the spacing squared goes 4x
+    static final double DEFECT_SCALE = 4;
+
+    final SimulationConfig config;
+    final HeatEngine[] levels; // levels[0] is the plate asked for
+    final double[][] before;   // each coarse level's field right after restriction
+    long cycles;
+
+    public MultigridSolver(SimulationConfig config) {
+        config.validate();
+        this.config = config;
+        int count = 1;
+        for (int w = config.width, h = config.height;
+             (w + 1) / 2 >= MIN_LEVEL_SIZE && (h + 1) / 2 >= MIN_LEVEL_SIZE; w = (w + 1) / 2, h = (h + 1) / 2)
+            count++;
+        levels = new HeatEngine[count];
+        before = new double[count][];
+        List<SimulationConfig.HeatSource> sources = config.effectiveSources();
+        for (int l = 0, w = config.width, h = config.height; l < count; l++, w = (w + 1) / 2, h = (h + 1) / 2) {
+            SimulationConfig c = new SimulationConfig(w, h, config.redhottemp)
+                    .setCornerTemps(config.sTemp, config.tTemp)
+                    .setMetalConstants(config.aConstant, config.bConstant, config.cConstant)
+                    .setMetalRatios(config.aRatio, config.bRatio, config.cRatio)
+                    .setInitialTemp(config.initialTemp)
+                    .setParallelism(config.parallelism)
+                    .setKernel(config.kernel)
+                    .setGranularity(l == 0 ? config.granularity : 0);
+            if (l == 0)
+                c.setMaxSweeps(config.maxSweeps)
+                        .setConvergence(config.convergence, config.tolerance, config.relativeTolerance, 1);
+            // several sources can land in one coarse cell, the hottest wins
+            Map<Long, SimulationConfig.HeatSource> coarse = new HashMap<>();
+            for (SimulationConfig.HeatSource s : sources) {
+                long key = ((long) (s.x >> l) << 32) | (s.y >> l);
+                SimulationConfig.HeatSource prev = coarse.get(key);
+                if (prev == null || prev.temp < s.temp)
+                    coarse.put(key, new SimulationConfig.HeatSource(s.x >> l, s.y >> l, s.temp));
+            }
+            for (SimulationConfig.HeatSource s : coarse.values())
+                c.addSource(s.x, s.y, s.temp);
+            levels[l] = new HeatEngine(c);
+            if (l > 0)
+                levels[l].grid.forcing = new double[w * h];
+        }
+    }
+
+    public SimulationResult run() {
+        ForkJoinPool pool = config.parallelism > 0 ? new ForkJoinPool(config.parallelism) : ForkJoinPool.commonPool();
+        try {
+            long start = System.nanoTime();
+            boolean converged = pool.invoke(ForkJoinTask.adapt(this::solve));
+            long elapsed = System.nanoTime() - start;
+            HeatEngine fine = levels[0];
+            HeatEngine.MatrixTree m = fine.driver.mat;
+            return new SimulationResult(fine.width, fine.height, fine.current().clone(), fine.sweeps, elapsed,
+                    m.lowestTemp, fine.residual(m), converged, fine.driver.nleaf, fine.granularity);
+        } finally {
+            if (pool != ForkJoinPool.commonPool())
+                pool.shutdown();
+        }
+    }
+
+    // cycles until the fine plate's last sweep meets the configured criterion, checked after every cycle
+    private boolean solve() {
+        HeatEngine fine = levels[0];
+        boolean converged = false;
+        while ((!converged || config.ignoreConvergence) && fine.sweeps < config.maxSweeps) {
+            cycle(0);
+            cycles++;
+            converged = fine.converged(fine.driver.mat);
+        }
+        return converged;
+    }
+
+    // one V-cycle (gamma 1) or W-cycle (gamma 2) from level l down
+    private void cycle(int l) {
+        HeatEngine e = levels[l];
+        if (l == levels.length - 1) {
+            e.smooth(config.coarseSweeps);
+            return;
+        }
+        e.smooth(config.preSmooth);
+        HeatEngine coarse = levels[l + 1];
+        new Transfer(e, coarse, l + 1, Transfer.RESTRICT, 0, coarse.width).invoke();
+        new Transfer(e, coarse, l + 1, Transfer.FORCING, 0, coarse.width).invoke();
+        double[] saved = before[l + 1];
+        if (saved == null)
+            saved = before[l + 1] = new double[coarse.width * coarse.height];
+        System.arraycopy(coarse.current(), 0, saved, 0, saved.length);
+        for (int g = 0; g < config.cycleGamma; g++)
+            cycle(l + 1);
+        new Transfer(e, coarse, l + 1, Transfer.PROLONG, 0, coarse.width).invoke();
+        e.smooth(config.postSmooth);
+    }
+
+    // fine sweeps' worth of work done on all levels, a coarse sweep costs a quarter of the one above it
+    public double workUnits() {
+        double fineCells = (double) levels[0].width * levels[0].height, work = 0;
+        for (HeatEngine e : levels)
+            work += e.sweeps * ((double) e.width * e.height) / fineCells;
+        return work;
+    }
+
+    public long getCycles() {
+        return cycles;
+    }
+
+    public int getLevels() {
+        return levels.length;
+    }
+
+    // Moves a field between two neighboring levels, split over coarse columns. RESTRICT averages each 2x2 block
+    // of the fine field and of its defect into the coarse cell, FORCING then turns the restricted defect into the
+    // coarse forcing term (it needs the neighbors' restricted values, so it's a separate pass), and PROLONG adds
+    // each coarse cell's change since restriction to every fine cell of its block. Sources are never written.
+    // Both matrices get the new values so a cell the next sweep skips doesn't come back with its old temp.
+    final class Transfer extends RecursiveAction {
+        static final int RESTRICT = 0, FORCING = 1, PROLONG = 2;
+
+        final HeatEngine fine, coarse;
+        final int level;
+        final int mode;
+        final int loCol, hiCol; // coarse columns
+
+        Transfer(HeatEngine fine, HeatEngine coarse, int level, int mode, int loCol, int hiCol) {
+            this.fine = fine;
+            this.coarse = coarse;
+            this.level = level;
+            this.mode = mode;
+            this.loCol = loCol;
+            this.hiCol = hiCol;
+        }
+
+        protected void compute() {
+            if ((hiCol - loCol) * coarse.height * 4 > PARALLEL_THRESHOLD && hiCol - loCol > 1) {
+                int mid = (loCol + hiCol) >>> 1;
+                invokeAll(new Transfer(fine, coarse, level, mode, loCol, mid),
+                        new Transfer(fine, coarse, level, mode, mid, hiCol));
+                return;
+            }
+            switch (mode) {
+                case RESTRICT: restrict(); break;
+                case FORCING: forcing(); break;
+                default: prolong();
+            }
+        }
+
+        // coarse value is the block mean; the forcing term holds minus the block's mean defect, in coarse cells
+        // (DEFECT_SCALE), for now
+        private void restrict() {
+            double[] f = fine.current();
+            HeatGrid cg = coarse.grid;
+            HeatEngine.LeafNode stencil = fine.new LeafNode(null, fine.grid, 0, 1, 0, 1);
+            int fh = fine.height, ch = coarse.height;
+            for (int cx = loCol; cx < hiCol; cx++) {
+                for (int cy = 0; cy < ch; cy++) {
+                    int ci = cx * ch + cy;
+                    if (cg.isSource(ci))
+                        continue;
+                    double sum = 0, defect = 0;
+                    int n = 0;
+                    for (int x = 2 * cx; x <= 2 * cx + 1 && x < fine.width; x++) {
+                        for (int y = 2 * cy; y <= 2 * cy + 1 && y < fh; y++) {
+                            sum += f[x * fh + y];
+                            defect += stencil.defect(f, x, y, fine.grid.forcing);
+                            n++;
+                        }
+                    }
+                    cg.A[ci] = cg.B[ci] = sum / n;
+                    cg.forcing[ci] = -DEFECT_SCALE * defect / n;
+                }
+            }
+        }
+
+        private void forcing() {
+            HeatGrid cg = coarse.grid;
+            HeatEngine.LeafNode stencil = coarse.new LeafNode(null, cg, 0, 1, 0, 1);
+            int ch = coarse.height;
+            for (int cx = loCol; cx < hiCol; cx++) {
+                for (int cy = 0; cy < ch; cy++) {
+                    if (!cg.isSource(cx * ch + cy))
+                        cg.forcing[cx * ch + cy] += stencil.defect(cg.A, cx, cy, null);
+                }
+            }
+        }
+
+        private void prolong() {
+            double[] c = coarse.current();
+            double[] saved = before[level];
+            HeatGrid fg = fine.grid;
+            double[] f = fine.current();
+            int fh = fine.height, ch = coarse.height;
+            for (int cx = loCol; cx < hiCol; cx++) {
+                for (int cy = 0; cy < ch; cy++) {
+                    double change = c[cx * ch + cy] - saved[cx * ch + cy];
+                    for (int x = 2 * cx; x <= 2 * cx + 1 && x < fine.width; x++) {
+                        for (int y = 2 * cy; y <= 2 * cy + 1 && y < fh; y++) {
+                            int fi = x * fh + y;
+                            if (!fg.isSource(fi))
+                                fg.A[fi] = fg.B[fi] = f[fi] + change;
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
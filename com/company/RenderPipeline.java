@@ -0,0 +1,120 @@
+package com.company;
+
+// Gets frames from the solver to the screen in three stages, none of which waits for another:
+//
+//   solver      a FramePublisher on the engine points its back frame at a finished sweep's matrix and swaps
+//               it in
+//   renderer    this pipeline's own thread takes the newest frame, which copies the matrix into it (or, for a
+//               LodRenderer, reduces the part on screen to pixels), turns it into pixels in the back image of
+//               a second TripleBuffer and swaps that in
+//   EDT         paintComponent calls draw(), which swaps in the newest finished image and blits it
+//
+// So the EDT never converts a field and never sees one being written, and the solver only waits for the
+// renderer when a frame is still being filled as its matrix is due to be written again (see FramePublisher).
+// Whichever stage is slower just sees fewer of the frames before it. The renderer sleeps (LockSupport.park)
+// while there's no new frame and the publisher wakes it up.
+//
+// Big frames and images are filled in parallel on the pipeline's own small pool, a quarter of the cores, rather than on the
+// common pool where the solver's tree may be running; with fewer than 8 cores the renderer thread fills them
+// alone.
+//
+// The images come from HeatRenderers (one cell per pixel, blown up) or from LodRenderers (a zoomable view at the
+// panel's resolution, see HeatPropagator.setDownsample), each with the publisher that fills its frames. A
+// LodRenderer's view can change while the solver sits still, so refresh() re-renders the last frame.
+
+import java.awt.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+public class RenderPipeline {
+    static final int RENDER_PARALLELISM = Runtime.getRuntime().availableProcessors() / 4;
+
+    final FramePublisher frames;
+    final Runnable onImage; // told when a new image is ready, e.g. repaint()
+    private final TripleBuffer<HeatRenderer> images;
+    private final Thread thread;
+    private final ForkJoinPool pool; // null to render on thread alone
+    private volatile boolean running = true;
+    private volatile boolean stale; // the last frame has to be rendered again
+
+    public RenderPipeline(float redhottemp, int width, int height, int cellSize, double fps, Runnable onImage) {
+        this(ready -> new FramePublisher(width * height, fps, ready),
+                () -> new HeatRenderer(redhottemp, width, height, cellSize), onImage);
+    }
+
+    // frames from the publisher made by publisher (given the runnable that wakes this pipeline up), each rendered
+    // by one of three renderers made by renderers
+    public RenderPipeline(Function<Runnable, ? extends FramePublisher> publisher,
+                          Supplier<? extends HeatRenderer> renderers, Runnable onImage) {
+        this.onImage = onImage;
+        frames = publisher.apply(this::frameReady);
+        images = new TripleBuffer<>(renderers.get(), renderers.get(), renderers.get());
+        thread = new Thread(this::renderLoop, "heat-renderer");
+        thread.setDaemon(true);
+        pool = RENDER_PARALLELISM > 1 ? new ForkJoinPool(RENDER_PARALLELISM) : null;
+    }
+
+    // the listener to add to the engine
+    public FramePublisher getFrames() {
+        return frames;
+    }
+
+    public RenderPipeline start() {
+        thread.start();
+        return this;
+    }
+
+    // stops the renderer thread; the last image stays drawable
+    public void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+        if (pool != null)
+            pool.shutdown();
+    }
+
+    private void frameReady() {
+        LockSupport.unpark(thread);
+    }
+
+    // renders the last frame again, e.g. after a LodRenderer's view changed
+    public void refresh() {
+        stale = true;
+        LockSupport.unpark(thread);
+    }
+
+    private void renderLoop() {
+        FramePublisher.Frame last = null; // ours until the next take()
+        while (running) {
+            FramePublisher.Frame f = pool != null ? pool.invoke(ForkJoinTask.adapt(frames::take)) : frames.take();
+            boolean again = stale;
+            stale = false;
+            if (f != null)
+                last = f;
+            else if (!again || last == null) {
+                // an unpark between take() and here isn't lost, park returns right away
+                LockSupport.park(this);
+                continue;
+            }
+            HeatRenderer r = images.back();
+            FramePublisher.Frame frame = last;
+            if (pool != null)
+                pool.invoke(ForkJoinTask.adapt(() -> r.render(frame)));
+            else
+                r.render(frame);
+            images.publish();
+            if (onImage != null)
+                onImage.run();
+        }
+    }
+
+    // On the EDT: blits the newest finished image, or nothing if there isn't one yet.
+    public void draw(Graphics g) {
+        images.update();
+        HeatRenderer r = images.front();
+        if (r != null)
+            r.draw(g);
+    }
+}
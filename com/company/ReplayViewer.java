@@ -0,0 +1,122 @@
+package com.company;
+
+// Plays back a FrameRecorder file with the same colors as the live display, at whatever speed you like.
+//
+//   java -cp out com.company.ReplayViewer run.rec [--fps N] [--speed X] [--cell-size N]
+//
+// space pauses, left/right step a frame while paused, up/down double or halve the speed, home jumps back to the
+// start and end to the last frame. Frames are decoded on the EDT from a timer; they are small, and the reader
+// only has to go back to a keyframe when stepping backwards.
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+
+public class ReplayViewer extends JPanel {
+    final FrameRecorder.Reader reader;
+    final HeatRenderer renderer;
+    final double[] temps;
+    final Timer timer;
+    double speed = 1; // recorded frames per timer tick
+    double position; // fractional frame, so speeds below 1 work too
+    int shown = -1;
+    boolean paused;
+
+    ReplayViewer(FrameRecorder.Reader reader, double fps, double speed, int cellSize) {
+        this.reader = reader;
+        this.speed = speed;
+        renderer = new HeatRenderer(reader.redhottemp, reader.width, reader.height, cellSize);
+        temps = new double[reader.width * reader.height];
+        setPreferredSize(new Dimension(reader.width * cellSize, reader.height * cellSize));
+        setFocusable(true);
+        timer = new Timer((int) Math.max(1, Math.round(1000 / fps)), e -> tick());
+        addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                switch (e.getKeyCode()) {
+                    case KeyEvent.VK_SPACE: paused = !paused; break;
+                    case KeyEvent.VK_RIGHT: paused = true; seek(shown + 1); break;
+                    case KeyEvent.VK_LEFT: paused = true; seek(shown - 1); break;
+                    case KeyEvent.VK_UP: ReplayViewer.this.speed *= 2; break;
+                    case KeyEvent.VK_DOWN: ReplayViewer.this.speed /= 2; break;
+                    case KeyEvent.VK_HOME: seek(0); break;
+                    case KeyEvent.VK_END: seek(reader.frames() - 1); break;
+                }
+            }
+        });
+    }
+
+    private void tick() {
+        if (paused || shown == reader.frames() - 1)
+            return;
+        position = Math.min(position + speed, reader.frames() - 1);
+        seek((int) position);
+    }
+
+    void seek(int frame) {
+        frame = Math.max(0, Math.min(frame, reader.frames() - 1));
+        if (frame == shown)
+            return;
+        try {
+            reader.read(frame, temps);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        renderer.render(temps);
+        shown = frame;
+        position = frame;
+        Window w = SwingUtilities.getWindowAncestor(this);
+        if (w instanceof Frame)
+            ((Frame) w).setTitle(String.format("sweep %d  (frame %d of %d, %gx)",
+                reader.sweep(frame), frame + 1, reader.frames(), speed));
+        repaint();
+    }
+
+    @Override
+    public void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        if (shown >= 0)
+            renderer.draw(g);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("usage: ReplayViewer FILE [--fps N] [--speed FRAMES_PER_TICK] [--cell-size N]");
+            return;
+        }
+        double fps = 30, speed = 1;
+        int cellSize = 10;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--fps": fps = Double.parseDouble(args[++i]); break;
+                case "--speed": speed = Double.parseDouble(args[++i]); break;
+                case "--cell-size": cellSize = Integer.parseInt(args[++i]); break;
+                default:
+                    System.err.println("unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+        FrameRecorder.Reader reader = new FrameRecorder.Reader(Paths.get(args[0]));
+        if (reader.frames() == 0) {
+            System.err.println(args[0] + " has no frames");
+            System.exit(1);
+        }
+        double f = fps, s = speed;
+        int c = cellSize;
+        SwingUtilities.invokeLater(() -> {
+            JFrame frame = new JFrame();
+            ReplayViewer viewer = new ReplayViewer(reader, f, s, c);
+            frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            frame.add(viewer);
+            frame.pack();
+            frame.setVisible(true);
+            viewer.requestFocusInWindow();
+            viewer.seek(0);
+            viewer.timer.start();
+        });
+    }
+}
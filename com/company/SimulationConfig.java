@@ -0,0 +1,442 @@
+package com.company;
+
+// Everything a HeatEngine needs to know about a run: plate size, corner/source temperatures, the metal
+// constants and ratios of the alloy, and how to split the plate across cores. Defaults match the values
+// HeatPropagator has always used, so new SimulationConfig(w, h, 500) reproduces the full screen demo.
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SimulationConfig implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Solver {
+        JACOBI,         // ping-pong between two matrices, the original scheme
+        GAUSS_SEIDEL,   // in place, colored sweeps, optionally over-relaxed
+        MULTIGRID       // Jacobi smoothing on a hierarchy of coarser plates, see MultigridSolver
+    }
+
+    // when a run counts as done
+    public enum Convergence {
+        LOWEST_TEMP,    // the coldest updated cell reaches 90% of redhottemp (or the average source temp), the original rule
+        MAX_DELTA,      // the largest change of any cell in a sweep drops to the tolerance
+        L2              // the L2 norm of a sweep's changes drops to the tolerance
+    }
+
+    // how Jacobi sweeps update interior cells; the results are the same bit for bit
+    public enum Kernel {
+        AUTO,           // VECTOR if the Vector API is there, SCALAR otherwise
+        SCALAR,         // one cell at a time through findNeighbors/calcNewTemp
+        VECTOR          // several cells per instruction, see VectorStencil; fails if the Vector API is missing
+    }
+
+    // where the two matrices live
+    public enum Storage {
+        HEAP,           // double[]s in a HeatGrid
+        OFF_HEAP,       // native memory outside the GC's reach, see OffHeapEngine
+        MAPPED          // a memory-mapped file, so plates bigger than RAM page to disk
+    }
+
+    // who runs the leaves every sweep
+    public enum Executor {
+        FORK_JOIN,      // the completer tree is forked into the pool and joined again every pass
+        BARRIER         // persistent workers that each own some leaves and meet at a Phaser, see BarrierExecutor
+    }
+
+    // what the temps are stored and computed in
+    public enum Precision {
+        DOUBLE,
+        FLOAT           // half the memory and bandwidth, see FloatEngine
+    }
+
+    final int width, height;
+    final float redhottemp;
+    double sTemp = 1000.0, tTemp = 400.0;
+    double aConstant = 0.75, bConstant = 1.0, cConstant = 1.25;
+    double aRatio = 0.33, bRatio = 0.33, cRatio = 0.34;
+    double initialTemp = 0.005;
+    int granularity;        // max cells per leaf, 0 = width * height / parallelism (/ oversubscription when adaptive)
+    int parallelism;        // worker threads, 0 = all cores
+    long maxSweeps = Long.MAX_VALUE;
+    boolean ignoreConvergence; // always run maxSweeps, for comparing solvers sweep for sweep
+    boolean adaptive;       // re-split/merge the tree between sweeps based on measured leaf times
+    int oversubscription = 8;       // leaves per worker to aim for in adaptive mode
+    int rebalanceInterval = 16;     // iterations between adaptive rebalances
+    int temporalBlock = 1;  // sweeps each leaf runs on its own between exchanges, 1 = plain Jacobi
+    Solver solver = Solver.JACOBI;
+    double omega = 1.0;     // over-relaxation factor for GAUSS_SEIDEL, 1 = plain Gauss-Seidel
+    int cycleGamma = 1;     // MULTIGRID: coarse visits per level, 1 = V-cycle, 2 = W-cycle
+    int preSmooth = 2, postSmooth = 2, coarseSweeps = 32;
+    Kernel kernel = Kernel.AUTO;
+    Executor executor = Executor.FORK_JOIN;
+    Convergence convergence = Convergence.LOWEST_TEMP;
+    double tolerance = 1e-3;        // MAX_DELTA and L2 residual to stop at
+    boolean relativeTolerance;      // tolerance is a fraction of the first sweep's residual instead of degrees
+    int checkInterval = 1;          // sweeps between convergence checks
+    double activityEpsilon = -1;    // tiles whose cells all changed by no more than this sleep, negative = off
+    Storage storage = Storage.HEAP;
+    String storageFile;             // MAPPED: the file holding the matrices
+    Precision precision = Precision.DOUBLE;
+    StencilKernel stencil;          // update rule, null = StencilKernel.Alloy with the constants and ratios above
+    MaterialMap materials;          // per-cell alloys instead of aRatio/bRatio/cRatio everywhere, null = uniform
+    final List<HeatSource> sources = new ArrayList<>();
+    // DistributedRun: this config is a slab of a plateWidth wide plate starting at column slabOffset, with
+    // haloLeft/haloRight ghost columns (0 or 1) that the neighboring slabs fill in. plateWidth 0 for a whole plate.
+    int plateWidth, slabOffset, haloLeft, haloRight;
+
+    // the most cells a double[] can hold on common JVMs
+    static final long MAX_HEAP_CELLS = Integer.MAX_VALUE - 8;
+    // default leaf size with temporal blocking, 128x128 cells
+    static final int BLOCKED_TILE_CELLS = 128 * 128;
+    // default leaf size with activity tracking, small enough that the settled parts of the plate are whole tiles
+    static final int ACTIVE_TILE_CELLS = 64 * 64;
+
+    static class HeatSource implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int x, y;
+        final double temp;
+        HeatSource(int x, int y, double temp) {
+            this.x = x;
+            this.y = y;
+            this.temp = temp;
+        }
+    }
+
+    public SimulationConfig(int width, int height, float redhottemp) {
+        this.width = width;
+        this.height = height;
+        this.redhottemp = redhottemp;
+    }
+
+    // S_TEMP and T_TEMP, the temps of the two heated corners
+    public SimulationConfig setCornerTemps(double sTemp, double tTemp) {
+        this.sTemp = sTemp;
+        this.tTemp = tTemp;
+        return this;
+    }
+
+    public SimulationConfig setMetalConstants(double a, double b, double c) {
+        aConstant = a;
+        bConstant = b;
+        cConstant = c;
+        return this;
+    }
+
+    public SimulationConfig setMetalRatios(double a, double b, double c) {
+        aRatio = a;
+        bRatio = b;
+        cRatio = c;
+        return this;
+    }
+
+    public SimulationConfig setInitialTemp(double initialTemp) {
+        this.initialTemp = initialTemp;
+        return this;
+    }
+
+    public SimulationConfig setGranularity(int granularity) {
+        this.granularity = granularity;
+        return this;
+    }
+
+    public SimulationConfig setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    // over-decomposes the plate into about oversubscription leaves per worker and, every rebalanceInterval
+    // sweeps, splits leaves that take much longer than their share and merges siblings that take much less
+    public SimulationConfig setAdaptive(int oversubscription, int rebalanceInterval) {
+        this.adaptive = true;
+        this.oversubscription = oversubscription;
+        this.rebalanceInterval = rebalanceInterval;
+        return this;
+    }
+
+    // each leaf advances k sweeps on a private copy of its tile plus a k cell halo before the tiles are
+    // written back; gives the same field as plain Jacobi with far fewer passes over memory
+    public SimulationConfig setTemporalBlock(int k) {
+        this.temporalBlock = k;
+        return this;
+    }
+
+    // omega is only used by GAUSS_SEIDEL; between 1 and 2 over-relaxes
+    public SimulationConfig setSolver(Solver solver, double omega) {
+        this.solver = solver;
+        this.omega = omega;
+        return this;
+    }
+
+    // MULTIGRID cycle shape: gamma 1 is a V-cycle, 2 a W-cycle; smoothing sweeps before and after the coarse
+    // correction on every level, and sweeps on the coarsest plate
+    public SimulationConfig setMultigridCycle(int gamma, int preSmooth, int postSmooth, int coarseSweeps) {
+        this.cycleGamma = gamma;
+        this.preSmooth = preSmooth;
+        this.postSmooth = postSmooth;
+        this.coarseSweeps = coarseSweeps;
+        return this;
+    }
+
+    // a tile that changed by no more than epsilon in its last sweep is skipped until it or a neighboring tile
+    // changes again; 0 only skips tiles that didn't change at all
+    public SimulationConfig setActivityTracking(double epsilon) {
+        this.activityEpsilon = epsilon;
+        return this;
+    }
+
+    // stopping rule; tolerance is ignored for LOWEST_TEMP. The check runs on the reduction the sweep's
+    // completion tree already does, every checkInterval sweeps (or temporal blocks).
+    public SimulationConfig setConvergence(Convergence convergence, double tolerance, boolean relative, int checkInterval) {
+        this.convergence = convergence;
+        this.tolerance = tolerance;
+        this.relativeTolerance = relative;
+        this.checkInterval = checkInterval;
+        return this;
+    }
+
+    // BARRIER doesn't do adaptive trees or activity tracking, both reshape what the workers run every sweep
+    public SimulationConfig setExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    public SimulationConfig setKernel(Kernel kernel) {
+        this.kernel = kernel;
+        return this;
+    }
+
+    // OFF_HEAP and MAPPED only run plain Jacobi sweeps, through HeatEngine.simulate; file is only used by MAPPED
+    public SimulationConfig setStorage(Storage storage, String file) {
+        this.storage = storage;
+        this.storageFile = file;
+        return this;
+    }
+
+    // FLOAT only runs plain Jacobi sweeps on the heap, through HeatEngine.simulate
+    public SimulationConfig setPrecision(Precision precision) {
+        this.precision = precision;
+        return this;
+    }
+
+    // the update rule, see StencilKernel; null for the original alloy rule. Only for the heap engine's sweeps.
+    public SimulationConfig setStencil(StencilKernel stencil) {
+        this.stencil = stencil;
+        return this;
+    }
+
+    // per-cell alloys, see MaterialMap; null for a uniform plate. Only for the heap engine's Jacobi and
+    // Gauss-Seidel sweeps without temporal blocking.
+    public SimulationConfig setMaterials(MaterialMap materials) {
+        this.materials = materials;
+        return this;
+    }
+
+    public SimulationConfig setMaxSweeps(long maxSweeps) {
+        this.maxSweeps = maxSweeps;
+        return this;
+    }
+
+    // adds a heat source; if none are added the two corners are heated to S_TEMP and T_TEMP
+    public SimulationConfig addSource(int x, int y, double temp) {
+        sources.add(new HeatSource(x, y, temp));
+        return this;
+    }
+
+    // an independent config with the same settings, for reruns with one thing changed
+    public SimulationConfig copy() {
+        return copy(width);
+    }
+
+    // Columns from..to-1 of this plate for one worker of a DistributedRun, plus a ghost column on each side
+    // that borders another slab. Sources stay in plate coordinates, effectiveSources maps them onto the slab.
+    SimulationConfig slab(int from, int to) {
+        int left = from > 0 ? 1 : 0, right = to < width ? 1 : 0;
+        SimulationConfig c = copy(to - from + left + right);
+        c.plateWidth = width;
+        c.slabOffset = from - left;
+        c.haloLeft = left;
+        c.haloRight = right;
+        if (materials != null)
+            c.materials = materials.columns(from - left, to + right);
+        return c;
+    }
+
+    private SimulationConfig copy(int width) {
+        SimulationConfig c = new SimulationConfig(width, height, redhottemp);
+        c.sTemp = sTemp;
+        c.tTemp = tTemp;
+        c.aConstant = aConstant;
+        c.bConstant = bConstant;
+        c.cConstant = cConstant;
+        c.aRatio = aRatio;
+        c.bRatio = bRatio;
+        c.cRatio = cRatio;
+        c.initialTemp = initialTemp;
+        c.granularity = granularity;
+        c.parallelism = parallelism;
+        c.maxSweeps = maxSweeps;
+        c.ignoreConvergence = ignoreConvergence;
+        c.adaptive = adaptive;
+        c.oversubscription = oversubscription;
+        c.rebalanceInterval = rebalanceInterval;
+        c.temporalBlock = temporalBlock;
+        c.solver = solver;
+        c.omega = omega;
+        c.cycleGamma = cycleGamma;
+        c.preSmooth = preSmooth;
+        c.postSmooth = postSmooth;
+        c.coarseSweeps = coarseSweeps;
+        c.kernel = kernel;
+        c.executor = executor;
+        c.activityEpsilon = activityEpsilon;
+        c.convergence = convergence;
+        c.tolerance = tolerance;
+        c.relativeTolerance = relativeTolerance;
+        c.checkInterval = checkInterval;
+        c.storage = storage;
+        c.storageFile = storageFile;
+        c.precision = precision;
+        c.stencil = stencil;
+        c.materials = materials;
+        c.plateWidth = plateWidth;
+        c.slabOffset = slabOffset;
+        c.haloLeft = haloLeft;
+        c.haloRight = haloRight;
+        c.sources.addAll(sources);
+        return c;
+    }
+
+    // the sources on this plate (or slab, in slab coordinates)
+    List<HeatSource> effectiveSources() {
+        List<HeatSource> all = plateSources();
+        if (plateWidth == 0)
+            return all;
+        List<HeatSource> local = new ArrayList<>();
+        for (HeatSource s : all) {
+            if (s.x >= slabOffset && s.x < slabOffset + width)
+                local.add(new HeatSource(s.x - slabOffset, s.y, s.temp));
+        }
+        return local;
+    }
+
+    // the sources on the whole plate, a slab's convergence temps come from all of them
+    List<HeatSource> plateSources() {
+        if (!sources.isEmpty())
+            return sources;
+        List<HeatSource> corners = new ArrayList<>();
+        corners.add(new HeatSource(0, 0, sTemp));
+        corners.add(new HeatSource((plateWidth > 0 ? plateWidth : width) - 1, height - 1, tTemp));
+        return corners;
+    }
+
+    int effectiveParallelism() {
+        return parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    int effectiveGranularity() {
+        if (granularity > 0)
+            return granularity;
+        int leaves = effectiveParallelism() * (adaptive ? oversubscription : 1);
+        int cells = Math.max(1, width * height / leaves);
+        // blocked tiles only pay off while tile and halo stay in cache
+        if (temporalBlock > 1)
+            return Math.min(cells, BLOCKED_TILE_CELLS);
+        return trackActivity() ? Math.min(cells, ACTIVE_TILE_CELLS) : cells;
+    }
+
+    boolean trackActivity() {
+        return activityEpsilon >= 0;
+    }
+
+    // Whether a cell frozen at convergenceTemp is copied into the matrix being written every sweep. The original
+    // rule just skips it, so the other matrix keeps the colder value it had before it froze; the sweep after
+    // next reads that one, updates the cell again and it flips between the two for good. LOWEST_TEMP only looks
+    // at the coldest cell and keeps the original rule bit for bit, but the residual criteria would see the flip
+    // (over a degree on the default plate) forever.
+    boolean carriesFrozenCells() {
+        return convergence != Convergence.LOWEST_TEMP;
+    }
+
+    // the hottest any cell can be driven to, used to bound convergence checks
+    double hottestSource() {
+        double hottest = Double.NEGATIVE_INFINITY;
+        for (HeatSource s : plateSources())
+            hottest = Math.max(hottest, s.temp);
+        return hottest;
+    }
+
+    // what the update rule scales the neighbors' mean by, 1.0025 for the default alloy
+    double coefficientSum() {
+        return aConstant * aRatio + bConstant * bRatio + cConstant * cRatio;
+    }
+
+    // (S_TEMP + T_TEMP) / 2 for the default corners
+    double averageSource() {
+        double sum = 0;
+        List<HeatSource> all = plateSources();
+        for (HeatSource s : all)
+            sum += s.temp;
+        return sum / all.size();
+    }
+
+    void validate() {
+        // the neighbor lookup needs at least a 2x2 plate to tell corners from edges
+        if (width < 2 || height < 2)
+            throw new IllegalArgumentException("plate must be at least 2x2, got " + width + "x" + height);
+        if (redhottemp <= 0)
+            throw new IllegalArgumentException("redhottemp must be positive");
+        if (maxSweeps <= 0)
+            throw new IllegalArgumentException("maxSweeps must be positive");
+        if (adaptive && (oversubscription < 1 || rebalanceInterval < 1))
+            throw new IllegalArgumentException("adaptive mode needs a positive oversubscription and rebalance interval");
+        if (temporalBlock < 1)
+            throw new IllegalArgumentException("temporal block must be at least 1 sweep");
+        if (solver != Solver.JACOBI && temporalBlock > 1)
+            throw new IllegalArgumentException("temporal blocking only works with the Jacobi solver");
+        if (convergence != Convergence.LOWEST_TEMP && !(tolerance > 0))
+            throw new IllegalArgumentException("tolerance must be positive, got " + tolerance);
+        if (checkInterval < 1)
+            throw new IllegalArgumentException("convergence check interval must be at least 1 sweep");
+        if (trackActivity() && (solver != Solver.JACOBI || temporalBlock > 1))
+            throw new IllegalArgumentException("activity tracking only works with plain Jacobi sweeps");
+        if (solver == Solver.MULTIGRID && (cycleGamma < 1 || preSmooth + postSmooth < 1 || coarseSweeps < 1))
+            throw new IllegalArgumentException("multigrid needs gamma >= 1 and some smoothing sweeps");
+        // see MultigridSolver: otherwise the fixed point isn't unique and the cycles settle on a different one
+        if (solver == Solver.MULTIGRID && Math.abs(coefficientSum() - 1) > 1e-9)
+            throw new IllegalArgumentException("multigrid needs the alloy's constants times ratios to add up to 1, got "
+                    + coefficientSum());
+        if (solver == Solver.MULTIGRID && redhottemp < hottestSource())
+            throw new IllegalArgumentException("multigrid needs redhottemp at least the hottest source ("
+                    + hottestSource() + "), cells can't freeze");
+        if (omega <= 0 || omega >= 2)
+            throw new IllegalArgumentException("omega must be between 0 and 2, got " + omega);
+        if (storage == Storage.HEAP && (long) width * height > MAX_HEAP_CELLS)
+            throw new IllegalArgumentException(width + "x" + height + " doesn't fit in an array, use off-heap storage");
+        if (storage != Storage.HEAP && (solver != Solver.JACOBI || temporalBlock > 1 || trackActivity()
+                || adaptive || plateWidth > 0))
+            throw new IllegalArgumentException("off-heap storage only runs plain Jacobi sweeps");
+        if (precision == Precision.FLOAT && (solver != Solver.JACOBI || temporalBlock > 1 || trackActivity()
+                || adaptive || plateWidth > 0 || storage != Storage.HEAP))
+            throw new IllegalArgumentException("single precision only runs plain Jacobi sweeps on the heap");
+        if (materials != null && (materials.width != width || materials.height != height))
+            throw new IllegalArgumentException("material map is " + materials.width + "x" + materials.height
+                    + ", the plate " + width + "x" + height);
+        if (materials != null && (solver == Solver.MULTIGRID || temporalBlock > 1 || storage != Storage.HEAP
+                || precision == Precision.FLOAT))
+            throw new IllegalArgumentException("material maps only work with heap Jacobi and Gauss-Seidel sweeps");
+        if (executor == Executor.BARRIER && (adaptive || trackActivity() || solver == Solver.MULTIGRID))
+            throw new IllegalArgumentException("the barrier executor doesn't do adaptive trees, activity tracking or multigrid");
+        if (stencil != null && (solver == Solver.MULTIGRID || precision == Precision.FLOAT
+                || materials != null || kernel == Kernel.VECTOR))
+            throw new IllegalArgumentException("other stencils only run on double precision scalar sweeps, "
+                    + "without multigrid or material maps");
+        if (storage == Storage.MAPPED && storageFile == null)
+            throw new IllegalArgumentException("mapped storage needs a file");
+        for (HeatSource s : sources) {
+            if (s.x < 0 || s.x >= (plateWidth > 0 ? plateWidth : width) || s.y < 0 || s.y >= height)
+                throw new IllegalArgumentException("heat source (" + s.x + ", " + s.y + ") is outside the plate");
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.company;
+
+// Final field and statistics of a HeatEngine run.
+
+public class SimulationResult {
+    final int width, height;
+    final double[] field;   // column-major, cell (x, y) at x * height + y
+    final long sweeps;
+    final long elapsedNanos;
+    final double lowestTemp;
+    final double residual;  // last sweep's largest change, or its L2 norm with Convergence.L2
+    final boolean converged;
+    final int leaves;       // in the tree the run ended with, after any adaptive rebalancing
+    final int granularity;  // no leaf has more cells
+    long firstSweep;        // sweeps a restored run started from, these aren't in its elapsed time
+
+    SimulationResult(int width, int height, double[] field, long sweeps, long elapsedNanos,
+                     double lowestTemp, double residual, boolean converged, int leaves, int granularity) {
+        this.width = width;
+        this.height = height;
+        this.field = field;
+        this.sweeps = sweeps;
+        this.elapsedNanos = elapsedNanos;
+        this.lowestTemp = lowestTemp;
+        this.residual = residual;
+        this.converged = converged;
+        this.leaves = leaves;
+        this.granularity = granularity;
+    }
+
+    SimulationResult startingFrom(long firstSweep) {
+        this.firstSweep = firstSweep;
+        return this;
+    }
+
+    public double temp(int x, int y) {
+        return field[x * height + y];
+    }
+
+    public double[] getField() {
+        return field;
+    }
+
+    public long getSweeps() {
+        return sweeps;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getLowestTemp() {
+        return lowestTemp;
+    }
+
+    public double getResidual() {
+        return residual;
+    }
+
+    public boolean isConverged() {
+        return converged;
+    }
+
+    // sweeps this run did per second
+    public double sweepsPerSecond() {
+        return elapsedNanos == 0 ? 0 : (sweeps - firstSweep) * 1e9 / elapsedNanos;
+    }
+
+    public double cellsPerSecond() {
+        return sweepsPerSecond() * width * height;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%dx%d: %s after %d sweeps in %.3f s (%.1f sweeps/s, %.3g cells/s), lowest temp %.3f, residual %.3g, %d leaves of <= %d cells",
+                width, height, converged ? "converged" : "stopped", sweeps, elapsedNanos / 1e9,
+                sweepsPerSecond(), cellsPerSecond(), lowestTemp, residual, leaves, granularity);
+    }
+}
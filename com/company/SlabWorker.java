@@ -0,0 +1,187 @@
+package com.company;
+
+// One process of a DistributedRun. The coordinator hands it a slab of the plate (a run of whole columns, see
+// SimulationConfig.slab) and it runs the usual fork-join tree on it. The slab carries a ghost column on each
+// side that borders another slab; the tree never sweeps those, and after every sweep they're overwritten with
+// the neighbor's newest edge column, sent over a socket. Since a sweep only reads the matrix the previous one
+// wrote, the slabs together compute exactly what one HeatEngine on the whole plate would.
+//
+// Convergence is decided on the whole plate: whenever the engine is about to check (every checkInterval
+// sweeps, and after the last one) each worker sends its tree's lowest temp and residuals to the coordinator,
+// which reduces them and sends the result back, and the worker puts the plate's values in its root before
+// the engine looks at them. Every worker sees the same numbers and stops on the same sweep.
+//
+// Normally started by DistributedRun; to spread a run over several machines, start the coordinator with
+// --listen and run this on each of them:
+//
+//   java -cp out com.company.SlabWorker COORDINATOR_HOST PORT
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+public class SlabWorker implements HeatEngine.SweepListener {
+    // messages to the coordinator
+    static final byte REDUCE = 1, DONE = 2;
+
+    final int rank;
+    final SimulationConfig config;
+    final HeatEngine engine;
+    final ObjectInputStream in;
+    final ObjectOutputStream out;
+    final SocketChannel left, right; // neighbors' halo links, null at the plate's edges
+    final ByteBuffer column;
+    final int height;
+    private long sinceCheck;
+    private boolean reducedFirst;
+
+    SlabWorker(int rank, SimulationConfig config, ObjectInputStream in, ObjectOutputStream out,
+               SocketChannel left, SocketChannel right) {
+        this.rank = rank;
+        this.config = config;
+        this.in = in;
+        this.out = out;
+        this.left = left;
+        this.right = right;
+        engine = new HeatEngine(config);
+        height = config.height;
+        column = ByteBuffer.allocateDirect(8 * height).order(ByteOrder.nativeOrder());
+        engine.addSweepListener(this);
+    }
+
+    @Override
+    public void sweepCompleted(HeatGrid grid, double[] current, long sweep) {
+        try {
+            exchange(current);
+            // same counting as Driver.doCompute, so the reductions land on the sweeps it checks
+            boolean check = !config.ignoreConvergence && ++sinceCheck >= config.checkInterval;
+            if (check)
+                sinceCheck = 0;
+            // the first sweep is reduced too, a relative tolerance needs the plate's first residual
+            if (check || !reducedFirst || sweep >= config.maxSweeps)
+                reduce();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Swaps edge columns with both neighbors. The lower rank of a link sends first, and even ranks do their
+    // right link first while odd ranks do their left one, so every link is busy in one of two rounds and no
+    // pair ends up with both sides blocked on a full socket buffer.
+    private void exchange(double[] f) throws IOException {
+        if ((rank & 1) == 0) {
+            swapRight(f);
+            swapLeft(f);
+        } else {
+            swapLeft(f);
+            swapRight(f);
+        }
+    }
+
+    private void swapLeft(double[] f) throws IOException {
+        if (left == null)
+            return;
+        receive(left, f, 0);
+        send(left, f, 1);
+    }
+
+    private void swapRight(double[] f) throws IOException {
+        if (right == null)
+            return;
+        int last = config.width - 1;
+        send(right, f, last - 1);
+        receive(right, f, last);
+    }
+
+    private void send(SocketChannel ch, double[] f, int col) throws IOException {
+        column.clear();
+        column.asDoubleBuffer().put(f, col * height, height);
+        while (column.hasRemaining())
+            ch.write(column);
+    }
+
+    private void receive(SocketChannel ch, double[] f, int col) throws IOException {
+        column.clear();
+        while (column.hasRemaining()) {
+            if (ch.read(column) < 0)
+                throw new IOException("slab " + rank + " lost a neighbor");
+        }
+        column.flip();
+        column.asDoubleBuffer().get(f, col * height, height);
+    }
+
+    // replaces the root's values for the last sweep with the whole plate's
+    private void reduce() throws IOException {
+        HeatEngine.MatrixTree m = engine.driver.mat;
+        out.writeByte(REDUCE);
+        out.writeDouble(m.lowestTemp);
+        out.writeDouble(m.maxDelta);
+        out.writeDouble(m.sumSquares);
+        out.flush();
+        m.lowestTemp = in.readDouble();
+        m.maxDelta = in.readDouble();
+        m.sumSquares = in.readDouble();
+        if (!reducedFirst) {
+            engine.firstResidual = engine.residual(m);
+            reducedFirst = true;
+        }
+    }
+
+    // runs the slab and sends the coordinator the outcome and the slab's own columns
+    void run() throws IOException {
+        SimulationResult r = engine.run();
+        out.writeByte(DONE);
+        out.writeLong(r.sweeps);
+        out.writeDouble(r.lowestTemp);
+        out.writeDouble(r.getResidual());
+        out.writeBoolean(r.converged);
+        out.writeInt(r.leaves);
+        out.writeInt(r.granularity);
+        out.writeObject(Arrays.copyOfRange(r.field, config.haloLeft * height, (config.width - config.haloRight) * height));
+        out.flush();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("usage: SlabWorker COORDINATOR_HOST PORT");
+            System.exit(2);
+        }
+        try (Socket control = new Socket(args[0], Integer.parseInt(args[1]));
+             ServerSocketChannel halo = ServerSocketChannel.open().bind(new InetSocketAddress(0))) {
+            control.setTcpNoDelay(true);
+            ObjectOutputStream out = new ObjectOutputStream(control.getOutputStream());
+            out.flush();
+            ObjectInputStream in = new ObjectInputStream(control.getInputStream());
+            out.writeInt(((InetSocketAddress) halo.getLocalAddress()).getPort());
+            out.flush();
+
+            int rank = in.readInt();
+            SimulationConfig config = (SimulationConfig) in.readObject();
+            String rightHost = in.readUTF();
+            int rightPort = in.readInt();
+            // the right neighbor is already listening, so connect before waiting on the left one
+            SocketChannel right = rightPort >= 0 ? SocketChannel.open(new InetSocketAddress(rightHost, rightPort)) : null;
+            SocketChannel left = config.haloLeft > 0 ? halo.accept() : null;
+            for (SocketChannel ch : new SocketChannel[] { left, right }) {
+                if (ch != null)
+                    ch.socket().setTcpNoDelay(true);
+            }
+            try {
+                new SlabWorker(rank, config, in, out, left, right).run();
+            } finally {
+                if (left != null)
+                    left.close();
+                if (right != null)
+                    right.close();
+            }
+        }
+    }
+}
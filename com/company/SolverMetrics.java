@@ -0,0 +1,354 @@
+package com.company;
+
+// Counters for a running HeatEngine, cheap enough to always keep: the driver adds a few System.nanoTime()
+// calls per sweep and every leaf times its own compute(). Everything heavier (walking the leaves for their
+// times, asking the pool for its counts, working out rates) happens every SAMPLE_SWEEPS sweeps, between sweeps
+// on the driver thread. The same numbers go out two ways:
+//
+//  - JMX, once register() is called (HeatCli --jmx): see SolverMetricsMBean for the attributes.
+//  - JFR events, whenever a recording has them enabled, e.g.
+//        java -XX:StartFlightRecording:filename=run.jfr,settings=profile ...
+//    com.company.Sweep per sweep (off by default, it can be thousands a second), com.company.SolverSample
+//    per sample and com.company.SolverRun per run. An event that isn't enabled costs a branch and isn't even
+//    allocated (sweepStarted, runStarted, sample), so a sweep still allocates nothing.
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class SolverMetrics implements SolverMetricsMBean {
+    // sweeps between samples
+    static final int SAMPLE_SWEEPS = 16;
+
+    final HeatEngine engine;
+    ForkJoinPool pool; // the pool the driver runs in, set when the loop starts
+    private ObjectName name;
+    private final List<HeatEngine.LeafNode> leaves = new ArrayList<>();
+
+    // written by the driver thread only, volatile for JMX readers
+    private volatile long sweeps;
+    private volatile double residual, lowestTemp;
+    private volatile double sweepsPerSecond, leafMeanNanos, leafMaxNanos, imbalance;
+    private volatile int leafCount;
+    private volatile long invokeNanos, reinitializeNanos, loopNanos, loopStart;
+
+    // where the last sample left off
+    private long sampleSweeps, sampleTime;
+
+    SolverMetrics(HeatEngine engine) {
+        this.engine = engine;
+    }
+
+    @Name("com.company.Sweep")
+    @Label("Sweep")
+    @Category("Heat Propagation")
+    @Description("One pass of the solver over the plate")
+    @StackTrace(false)
+    @Enabled(false)
+    static class SweepEvent extends Event {
+        @Label("Sweep")
+        long sweep;
+        @Label("Residual")
+        double residual;
+        @Label("Lowest Temp")
+        double lowestTemp;
+    }
+
+    private static final EventType SWEEP_EVENT = EventType.getEventType(SweepEvent.class);
+
+    // a begun SweepEvent for the sweep about to start, or null while no recording has them enabled
+    static SweepEvent sweepStarted() {
+        if (!SWEEP_EVENT.isEnabled())
+            return null;
+        SweepEvent event = new SweepEvent();
+        event.begin();
+        return event;
+    }
+
+    @Name("com.company.SolverSample")
+    @Label("Solver Sample")
+    @Category("Heat Propagation")
+    @Description("Rates, leaf times and pool counts over the last few sweeps")
+    @StackTrace(false)
+    static class SampleEvent extends Event {
+        @Label("Sweeps")
+        long sweeps;
+        @Label("Sweeps per Second")
+        double sweepsPerSecond;
+        @Label("Cells per Second")
+        double cellsPerSecond;
+        @Label("Leaves")
+        int leaves;
+        @Label("Mean Leaf Time")
+        @Timespan
+        long leafMean;
+        @Label("Slowest Leaf Time")
+        @Timespan
+        long leafMax;
+        @Label("Imbalance")
+        @Description("Slowest leaf over the mean")
+        double imbalance;
+        @Label("Steals")
+        long steals;
+        @Label("Queued Tasks")
+        long queued;
+    }
+
+    @Name("com.company.SolverRun")
+    @Label("Solver Run")
+    @Category("Heat Propagation")
+    @Description("A driver loop from start to convergence or the sweep limit")
+    @StackTrace(false)
+    static class RunEvent extends Event {
+        @Label("Width")
+        int width;
+        @Label("Height")
+        int height;
+        @Label("Sweeps")
+        long sweeps;
+        @Label("Converged")
+        boolean converged;
+        @Label("Time in Tree")
+        @Timespan
+        long invoke;
+        @Label("Time Resetting Tree")
+        @Timespan
+        long reinitialize;
+    }
+
+    private static final EventType SAMPLE_EVENT = EventType.getEventType(SampleEvent.class);
+    private static final EventType RUN_EVENT = EventType.getEventType(RunEvent.class);
+
+    // a begun RunEvent for the loop about to start, or null while no recording has them enabled
+    static RunEvent runStarted() {
+        if (!RUN_EVENT.isEnabled())
+            return null;
+        RunEvent event = new RunEvent();
+        event.begin();
+        return event;
+    }
+
+    // the driver loop starts, on a worker of pool
+    void loopStarted(ForkJoinPool pool) {
+        this.pool = pool;
+        sampleSweeps = engine.sweeps;
+        loopStart = sampleTime = System.nanoTime();
+    }
+
+    // with the event runStarted() gave before the loop
+    void loopEnded(RunEvent event, boolean converged) {
+        loopNanos += System.nanoTime() - loopStart;
+        loopStart = 0;
+        sample();
+        if (event != null && event.shouldCommit()) {
+            event.width = engine.width;
+            event.height = engine.height;
+            event.sweeps = sweeps;
+            event.converged = converged;
+            event.invoke = invokeNanos;
+            event.reinitialize = reinitializeNanos;
+            event.commit();
+        }
+    }
+
+    // one run of the tree: time in invoke() and in reinitialize()
+    void treeRan(long invoke, long reinitialize) {
+        invokeNanos += invoke;
+        reinitializeNanos += reinitialize;
+    }
+
+    // after each pass, with the event sweepStarted() gave before it
+    void swept(HeatEngine.MatrixTree root, SweepEvent event) {
+        long s = engine.sweeps;
+        sweeps = s;
+        residual = engine.residual(root);
+        lowestTemp = root.lowestTemp;
+        if (event != null && event.shouldCommit()) {
+            event.sweep = s;
+            event.residual = residual;
+            event.lowestTemp = lowestTemp;
+            event.commit();
+        }
+        if (s - sampleSweeps >= SAMPLE_SWEEPS)
+            sample();
+    }
+
+    private void sample() {
+        long now = System.nanoTime();
+        long swept = engine.sweeps - sampleSweeps;
+        if (swept <= 0 || sampleTime == 0 || engine.driver == null)
+            return;
+        sweepsPerSecond = swept * 1e9 / (now - sampleTime);
+        // the leaves add up their compute() times, reset here; skipped leaves don't count towards the mean
+        leaves.clear();
+        engine.driver.collectLeaves(engine.driver.mat, leaves);
+        long total = 0, max = 0;
+        int ran = 0;
+        for (HeatEngine.LeafNode l : leaves) {
+            long n = l.nanos;
+            l.nanos = 0;
+            if (n > 0) {
+                total += n;
+                max = Math.max(max, n);
+                ran++;
+            }
+        }
+        leafCount = leaves.size();
+        leafMeanNanos = ran == 0 ? 0 : (double) total / ran / swept;
+        leafMaxNanos = (double) max / swept;
+        imbalance = total == 0 ? 1 : (double) max * ran / total;
+        sampleSweeps = engine.sweeps;
+        sampleTime = now;
+
+        if (!SAMPLE_EVENT.isEnabled())
+            return;
+        SampleEvent event = new SampleEvent();
+        if (event.shouldCommit()) {
+            event.sweeps = sweeps;
+            event.sweepsPerSecond = sweepsPerSecond;
+            event.cellsPerSecond = getCellsPerSecond();
+            event.leaves = leafCount;
+            event.leafMean = (long) leafMeanNanos;
+            event.leafMax = (long) leafMaxNanos;
+            event.imbalance = imbalance;
+            event.steals = getStealCount();
+            event.queued = getQueuedTaskCount();
+            event.commit();
+        }
+    }
+
+    // registers with the platform MBean server as com.company:type=SolverMetrics,name=name
+    public SolverMetrics register(String name) {
+        try {
+            ObjectName n = new ObjectName("com.company:type=SolverMetrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, n);
+            this.name = n;
+        } catch (JMException e) {
+            throw new IllegalStateException("can't register metrics as " + name, e);
+        }
+        return this;
+    }
+
+    public void unregister() {
+        if (name == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            // already gone
+        }
+        name = null;
+    }
+
+    @Override
+    public long getSweeps() {
+        return sweeps;
+    }
+
+    @Override
+    public double getSweepsPerSecond() {
+        return sweepsPerSecond;
+    }
+
+    @Override
+    public double getCellsPerSecond() {
+        return sweepsPerSecond * engine.width * engine.height;
+    }
+
+    @Override
+    public double getResidual() {
+        return residual;
+    }
+
+    @Override
+    public double getLowestTemp() {
+        return lowestTemp;
+    }
+
+    @Override
+    public int getLeaves() {
+        return leafCount;
+    }
+
+    @Override
+    public double getLeafMeanMicros() {
+        return leafMeanNanos / 1e3;
+    }
+
+    @Override
+    public double getLeafMaxMicros() {
+        return leafMaxNanos / 1e3;
+    }
+
+    @Override
+    public double getImbalance() {
+        return imbalance;
+    }
+
+    @Override
+    public long getStealCount() {
+        ForkJoinPool p = pool;
+        return p == null ? 0 : p.getStealCount();
+    }
+
+    @Override
+    public long getQueuedTaskCount() {
+        ForkJoinPool p = pool;
+        return p == null ? 0 : p.getQueuedTaskCount();
+    }
+
+    @Override
+    public int getActiveThreadCount() {
+        ForkJoinPool p = pool;
+        return p == null ? 0 : p.getActiveThreadCount();
+    }
+
+    @Override
+    public int getParallelism() {
+        ForkJoinPool p = pool;
+        return p == null ? 0 : p.getParallelism();
+    }
+
+    @Override
+    public double getLoopSeconds() {
+        long start = loopStart;
+        return (loopNanos + (start != 0 ? System.nanoTime() - start : 0)) / 1e9;
+    }
+
+    @Override
+    public double getInvokeSeconds() {
+        return invokeNanos / 1e9;
+    }
+
+    @Override
+    public double getReinitializeSeconds() {
+        return reinitializeNanos / 1e9;
+    }
+
+    @Override
+    public double getLoopOverhead() {
+        double loop = getLoopSeconds();
+        return loop == 0 ? 0 : Math.max(0, 1 - (getInvokeSeconds() + getReinitializeSeconds()) / loop);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.1f sweeps/s, %d leaves averaging %.1f us (slowest %.1f us, imbalance %.2f), "
+                        + "%d steals, %.3f s in the tree and %.3f s resetting it of %.3f s looping (%.1f%% overhead)",
+                sweepsPerSecond, leafCount, getLeafMeanMicros(), getLeafMaxMicros(), imbalance, getStealCount(),
+                getInvokeSeconds(), getReinitializeSeconds(), getLoopSeconds(), 100 * getLoopOverhead());
+    }
+}
@@ -0,0 +1,44 @@
+package com.company;
+
+// What SolverMetrics shows over JMX, e.g. in JConsole under com.company:type=SolverMetrics. Rates and leaf
+// times are over the last sample, every SolverMetrics.SAMPLE_SWEEPS sweeps; the pool numbers are read live.
+
+public interface SolverMetricsMBean {
+    long getSweeps();
+
+    double getSweepsPerSecond();
+
+    double getCellsPerSecond();
+
+    double getResidual();
+
+    double getLowestTemp();
+
+    int getLeaves();
+
+    // mean and slowest leaf's compute time per sweep
+    double getLeafMeanMicros();
+
+    double getLeafMaxMicros();
+
+    // slowest leaf over the mean, 1 for a perfectly even tree
+    double getImbalance();
+
+    long getStealCount();
+
+    long getQueuedTaskCount();
+
+    int getActiveThreadCount();
+
+    int getParallelism();
+
+    // time in the driver's loop, and how much of it went to running the tree and resetting it after
+    double getLoopSeconds();
+
+    double getInvokeSeconds();
+
+    double getReinitializeSeconds();
+
+    // share of the loop spent outside the tree: convergence checks, listeners, rebalancing
+    double getLoopOverhead();
+}
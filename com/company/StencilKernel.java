@@ -0,0 +1,262 @@
+package com.company;
+
+// The update rule, pulled out of the fork-join tree so other rules can run on the same LeafNode/Driver machinery
+// (and on temporal blocking, Gauss-Seidel and DistributedRun) without copying it. SimulationConfig.setStencil
+// picks one; left unset, HeatEngine uses Alloy with the config's constants and ratios, which is the original rule.
+//
+// A kernel is asked for two things: the new temp of a single cell from its neighbors, which LeafNode uses for
+// the plate's edges and corners and the schemes that walk cells one at a time, and a bulk update of a run of
+// interior cells down one column. The bulk call is where the time goes, so every kernel carries its own loop
+// with its arithmetic written out in it: LeafNode makes one interface call per column instead of one per cell,
+// and inside the loop nothing is virtual. A run only ever uses one kernel class, so that call site stays
+// monomorphic and the JIT inlines the loop into the leaf as if it had been written there (HeatBenchmark's
+// stencilSweep measures it against a hand-inlined copy).
+//
+// Kernels travel to DistributedRun's workers inside the config, so they have to be Serializable.
+
+import java.io.Serializable;
+
+public interface StencilKernel extends Serializable {
+    // The new temp of a cell whose n neighbors LeafNode.findNeighbors put in neighbors: 3 at a corner, 5 on an
+    // edge, 8 inside. xEdge says the cell is on the left or right edge, which together with n tells where each
+    // neighbor is:
+    //   n = 8:          1, 5 left/right    3, 7 above/below    0, 2, 4, 6 diagonal
+    //   n = 5, xEdge:   2 left/right       0, 4 above/below    1, 3 diagonal
+    //   n = 5:          0, 4 left/right    2 above/below       1, 3 diagonal
+    //   n = 3:          1 left/right       0 above/below       2 diagonal
+    double cell(double[] neighbors, int n, boolean xEdge);
+
+    // Rows lo..hi of column col, none of them on the plate's edge, reading a and writing b. Sources and cells at
+    // convergenceTemp are left alone, forcing[idx] is added to every update when forcing isn't null. Returns
+    // the lowest temp written, or lowest if that is lower; raises change[0] to the largest |new - old| and adds
+    // the squared changes to change[1], with old as LeafNode.previous has it.
+    double sweepColumn(double[] a, double[] b, double[] forcing, HeatGrid grid, int col, int lo, int hi,
+                       double convergenceTemp, double lowest, double[] change);
+
+    // A matrix that isn't a double[], e.g. OffHeapEngine's segments, read and written by long index.
+    interface Cells {
+        double get(long idx);
+
+        void set(long idx, double t);
+    }
+
+    // sweepColumn for matrices behind Cells: rows lo..hi of the column starting at index col, none of them on
+    // the plate's edge or a source (the caller splits the column around those), stride apart from the next
+    // column. Every cell goes through cell() with its 8 neighbors put in neighbors, so any kernel runs on any
+    // storage without another copy of its rule. Each step loads three new values and slides the rest along
+    // from the cell above. Cells at convergenceTemp are left alone, with no forcing; returns and reports like
+    // sweepColumn.
+    default double sweepColumn(Cells a, Cells b, long col, long stride, int lo, int hi, double ct, double lt,
+                               double[] change, double[] neighbors) {
+        final long st = stride;
+        final double[] nb = neighbors;
+        double d = change[0], ss = change[1];
+        // left, center and right column at rows j - 1, j and j + 1
+        double l0 = a.get(col + lo - 1 - st), l1 = a.get(col + lo - st), l2;
+        double c0 = a.get(col + lo - 1), c1 = a.get(col + lo), c2;
+        double r0 = a.get(col + lo - 1 + st), r1 = a.get(col + lo + st), r2;
+        for (long idx = col + lo, end = col + hi; idx <= end; idx++) {
+            l2 = a.get(idx - st + 1);
+            c2 = a.get(idx + 1);
+            r2 = a.get(idx + st + 1);
+            if (c1 < ct) {
+                // findNeighbors order
+                nb[0] = l2; nb[1] = l1; nb[2] = l0; nb[3] = c0;
+                nb[4] = r0; nb[5] = r1; nb[6] = r2; nb[7] = c2;
+                double newTemp = cell(nb, 8, false);
+                double written = b.get(idx);
+                double delta = newTemp - (written >= ct ? written : c1);
+                b.set(idx, newTemp);
+                if (newTemp < lt) lt = newTemp;
+                d = Math.max(d, Math.abs(delta));
+                ss += delta * delta;
+            }
+            l0 = l1; l1 = l2;
+            c0 = c1; c1 = c2;
+            r0 = r1; r1 = r2;
+        }
+        change[0] = d;
+        change[1] = ss;
+        return lt;
+    }
+
+    // The original rule: each metal's constant * ratio times the mean of all 8 (or 5, or 3) neighbors, summed.
+    // Clamped, the result can't be hotter than the hottest neighbor, minus the last one in findNeighbors'
+    // order, which the rule has always left out. The constants * ratios don't add up to 1, so unclamped
+    // (CCJacobi's variant) the plate keeps heating past its sources.
+    final class Alloy implements StencilKernel {
+        private static final long serialVersionUID = 1L;
+        final double aConstant, bConstant, cConstant, aRatio, bRatio, cRatio;
+        final boolean clamp;
+
+        public Alloy(double aConstant, double bConstant, double cConstant,
+                     double aRatio, double bRatio, double cRatio, boolean clamp) {
+            this.aConstant = aConstant;
+            this.bConstant = bConstant;
+            this.cConstant = cConstant;
+            this.aRatio = aRatio;
+            this.bRatio = bRatio;
+            this.cRatio = cRatio;
+            this.clamp = clamp;
+        }
+
+        static Alloy of(SimulationConfig c, boolean clamp) {
+            return new Alloy(c.aConstant, c.bConstant, c.cConstant, c.aRatio, c.bRatio, c.cRatio, clamp);
+        }
+
+        @Override
+        public double cell(double[] neighbors, int n, boolean xEdge) {
+            double newTemp = metalTemp(aConstant, aRatio, neighbors, n) + metalTemp(bConstant, bRatio, neighbors, n)
+                    + metalTemp(cConstant, cRatio, neighbors, n);
+            if (!clamp)
+                return newTemp;
+            double hottest = neighbors[0];
+            for (int k = 1; k < n - 1; k++) {
+                if (neighbors[k] > hottest)
+                    hottest = neighbors[k];
+            }
+            return Math.min(newTemp, hottest);
+        }
+
+        private static double metalTemp(double constant, double ratio, double[] neighbors, int n) {
+            double t = 0.0;
+            for (int k = 0; k < n; k++)
+                t += neighbors[k] * ratio;
+            return constant * t / n;
+        }
+
+        // cell's arithmetic, term for term in the same order, so both give identical results
+        @Override
+        public double sweepColumn(double[] a, double[] b, double[] f, HeatGrid grid, int col, int lo, int hi,
+                                  double ct, double lt, double[] change) {
+            final int s = grid.height;
+            final double ar = aRatio, br = bRatio, cr = cRatio;
+            double d = change[0], ss = change[1];
+            for (int idx = col * s + lo, end = col * s + hi; idx <= end; ++idx) {
+                double old = a[idx];
+                if (grid.isSource(idx) || old >= ct)
+                    continue;
+                // findNeighbors order
+                double n0 = a[idx - s + 1], n1 = a[idx - s], n2 = a[idx - s - 1], n3 = a[idx - 1];
+                double n4 = a[idx + s - 1], n5 = a[idx + s], n6 = a[idx + s + 1], n7 = a[idx + 1];
+                double newTemp = aConstant * (n0 * ar + n1 * ar + n2 * ar + n3 * ar + n4 * ar + n5 * ar + n6 * ar + n7 * ar) / 8
+                        + bConstant * (n0 * br + n1 * br + n2 * br + n3 * br + n4 * br + n5 * br + n6 * br + n7 * br) / 8
+                        + cConstant * (n0 * cr + n1 * cr + n2 * cr + n3 * cr + n4 * cr + n5 * cr + n6 * cr + n7 * cr) / 8;
+                if (clamp) {
+                    double hottest = Math.max(Math.max(Math.max(n0, n1), Math.max(n2, n3)), Math.max(Math.max(n4, n5), n6));
+                    newTemp = Math.min(newTemp, hottest);
+                }
+                if (f != null)
+                    newTemp += f[idx];
+                double written = b[idx];
+                double delta = newTemp - (written >= ct ? written : old);
+                b[idx] = newTemp;
+                if (newTemp < lt) lt = newTemp;
+                d = Math.max(d, Math.abs(delta));
+                ss += delta * delta;
+            }
+            change[0] = d;
+            change[1] = ss;
+            return lt;
+        }
+    }
+
+    // Mean of the neighbors left, right, above and below, the textbook 5-point Laplace update. A mean never
+    // overshoots its neighbors, so there's nothing to clamp. Edges average the 3 (or 2) neighbors they have,
+    // which makes the plate's border insulated. Plain Jacobi sweeps don't damp a checkerboard pattern with this
+    // stencil (a cell only sees the other color), so the residual rings for a long time after the warm-up;
+    // Gauss-Seidel, or Anisotropic with some diagonal weight, settles properly.
+    final class FourPoint implements StencilKernel {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public double cell(double[] nb, int n, boolean xEdge) {
+            if (n == 8)
+                return (nb[1] + nb[3] + nb[5] + nb[7]) / 4;
+            if (n == 5)
+                return (nb[0] + nb[2] + nb[4]) / 3;
+            return (nb[0] + nb[1]) / 2;
+        }
+
+        @Override
+        public double sweepColumn(double[] a, double[] b, double[] f, HeatGrid grid, int col, int lo, int hi,
+                                  double ct, double lt, double[] change) {
+            final int s = grid.height;
+            double d = change[0], ss = change[1];
+            for (int idx = col * s + lo, end = col * s + hi; idx <= end; ++idx) {
+                double old = a[idx];
+                if (grid.isSource(idx) || old >= ct)
+                    continue;
+                double newTemp = (a[idx - s] + a[idx - 1] + a[idx + s] + a[idx + 1]) / 4;
+                if (f != null)
+                    newTemp += f[idx];
+                double written = b[idx];
+                double delta = newTemp - (written >= ct ? written : old);
+                b[idx] = newTemp;
+                if (newTemp < lt) lt = newTemp;
+                d = Math.max(d, Math.abs(delta));
+                ss += delta * delta;
+            }
+            change[0] = d;
+            change[1] = ss;
+            return lt;
+        }
+    }
+
+    // A weighted mean of all 8 neighbors for plates that conduct better in one direction: kx for the neighbors
+    // left and right, ky above and below, kd on the diagonals. Missing neighbors at the edges drop out of both
+    // the sum and the weights. (1, 1, 0) is FourPoint, (1, 1, 1) the plain 8 neighbor mean.
+    final class Anisotropic implements StencilKernel {
+        private static final long serialVersionUID = 1L;
+        final double kx, ky, kd;
+
+        public Anisotropic(double kx, double ky, double kd) {
+            if (kx < 0 || ky < 0 || kd < 0 || !(kx + ky > 0))
+                throw new IllegalArgumentException("weights must not be negative and kx + ky must be positive, got "
+                        + kx + ", " + ky + ", " + kd);
+            this.kx = kx;
+            this.ky = ky;
+            this.kd = kd;
+        }
+
+        @Override
+        public double cell(double[] nb, int n, boolean xEdge) {
+            if (n == 8)
+                return (kx * (nb[1] + nb[5]) + ky * (nb[3] + nb[7]) + kd * (nb[0] + nb[2] + nb[4] + nb[6]))
+                        / (2 * kx + 2 * ky + 4 * kd);
+            if (n == 5) {
+                double diagonal = kd * (nb[1] + nb[3]);
+                if (xEdge)
+                    return (kx * nb[2] + ky * (nb[0] + nb[4]) + diagonal) / (kx + 2 * ky + 2 * kd);
+                return (kx * (nb[0] + nb[4]) + ky * nb[2] + diagonal) / (2 * kx + ky + 2 * kd);
+            }
+            return (kx * nb[1] + ky * nb[0] + kd * nb[2]) / (kx + ky + kd);
+        }
+
+        @Override
+        public double sweepColumn(double[] a, double[] b, double[] f, HeatGrid grid, int col, int lo, int hi,
+                                  double ct, double lt, double[] change) {
+            final int s = grid.height;
+            final double wx = kx, wy = ky, wd = kd, norm = 2 * kx + 2 * ky + 4 * kd;
+            double d = change[0], ss = change[1];
+            for (int idx = col * s + lo, end = col * s + hi; idx <= end; ++idx) {
+                double old = a[idx];
+                if (grid.isSource(idx) || old >= ct)
+                    continue;
+                double newTemp = (wx * (a[idx - s] + a[idx + s]) + wy * (a[idx - 1] + a[idx + 1])
+                        + wd * (a[idx - s + 1] + a[idx - s - 1] + a[idx + s - 1] + a[idx + s + 1])) / norm;
+                if (f != null)
+                    newTemp += f[idx];
+                double written = b[idx];
+                double delta = newTemp - (written >= ct ? written : old);
+                b[idx] = newTemp;
+                if (newTemp < lt) lt = newTemp;
+                d = Math.max(d, Math.abs(delta));
+                ss += delta * delta;
+            }
+            change[0] = d;
+            change[1] = ss;
+            return lt;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.company;
+
+// Three buffers shared by one thread that fills them and one that reads them, neither ever waiting for the other.
+// The writer owns the back buffer and the reader the front one; the third sits in the middle, holding the newest
+// buffer the reader hasn't picked up. Handing over is a single getAndSet on a packed int (the middle buffer's
+// index, and whether it's newer than the reader's), which swaps the writer's or the reader's buffer with the
+// middle one. A writer faster than its reader just keeps replacing the middle buffer, so the reader always gets
+// the newest one and the ones in between are dropped.
+//
+// The writer and the reader may each be a different thread from call to call, as long as their calls are ordered
+// (the barrier executor's listeners run on whichever worker arrives last, but one at a time).
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class TripleBuffer<T> {
+    private static final int INDEX = 3, FRESH = 4;
+
+    private final Object[] buffers;
+    // the middle buffer's index | FRESH if the writer put it there since the reader last took one
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0; // writer only
+    private int front = 2; // reader only
+    private boolean taken; // reader only: front has been published at least once
+
+    TripleBuffer(T a, T b, T c) {
+        buffers = new Object[] { a, b, c };
+    }
+
+    // the writer's buffer, to fill before publish()
+    @SuppressWarnings("unchecked")
+    T back() {
+        return (T) buffers[back];
+    }
+
+    // makes the back buffer the newest and gives the writer another; returns whether a buffer the reader never
+    // took was dropped to make room
+    boolean publish() {
+        int old = middle.getAndSet(back | FRESH);
+        back = old & INDEX;
+        return (old & FRESH) != 0;
+    }
+
+    // takes the newest published buffer if there is one the reader doesn't have yet; returns whether it did
+    boolean update() {
+        if ((middle.get() & FRESH) == 0)
+            return false;
+        front = middle.getAndSet(front) & INDEX;
+        taken = true;
+        return true;
+    }
+
+    // the reader's buffer, the newest as of the last update(), or null if nothing was ever published
+    @SuppressWarnings("unchecked")
+    T front() {
+        return taken ? (T) buffers[front] : null;
+    }
+}
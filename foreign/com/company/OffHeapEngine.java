@@ -0,0 +1,335 @@
+package com.company;
+
+// Plain Jacobi sweeps on a plate whose two matrices live outside the Java heap, for plates too big for a pair of
+// double[]s (100k x 100k is 160 GB) and so the GC never has to look at them. The matrices are native memory, or
+// with Storage.MAPPED a memory-mapped file, A then B, so plates bigger than RAM page to disk. The layout is the
+// same as HeatGrid's, column-major with long indices, and the update rule is the config's StencilKernel, reached
+// through a StencilKernel.Cells view of each segment, so a plate small enough for both gives the same field bit
+// for bit.
+//
+// The columns are split into about one range per core by a tree of Columns built once and reset between sweeps,
+// like HeatEngine's MatrixTree. A leaf walks the plate's edges itself and hands the interior of each column to
+// the kernel in runs between sources. Sources are few, so they're a sorted list of indices instead of a bitmask
+// (which would be another 1.25 GB on a 100k plate).
+//
+// The Foreign Memory API is an incubator module in JDK 17, so this lives outside com/company and is built and
+// run with
+//
+//   javac --add-modules jdk.incubator.foreign -d out com/company/*.java foreign/com/company/*.java
+//   java --add-modules jdk.incubator.foreign -cp out com.company.HeatCli --storage off-heap ...
+//
+// When the run ends the latest field is copied into A, so a mapped file's first half always holds the result.
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+final class OffHeapEngine implements HeatEngine.Backend {
+    final SimulationConfig config;
+    final int width, height;
+    final long cells;
+    final StencilKernel stencil;
+    final double convergenceTemp, targetTemp;
+    final boolean carryFrozen; // see SimulationConfig.carriesFrozenCells
+    final long[] sourceIdx; // sorted
+    final double[] sourceTemp;
+    final long leafColumns; // columns per leaf
+    final ResourceScope scope;
+    final MemorySegment A, B;
+    final Segment cellsA, cellsB;
+    Segment read, write; // this sweep's pair, set by the driver before it invokes the tree; a null read fills both
+    long sweeps;
+    double firstResidual = -1;
+
+    OffHeapEngine(SimulationConfig config) {
+        config.validate();
+        this.config = config;
+        width = config.width;
+        height = config.height;
+        cells = (long) width * height;
+        stencil = config.stencil != null ? config.stencil : StencilKernel.Alloy.of(config, true);
+        // same as HeatEngine
+        convergenceTemp = Math.min(config.redhottemp, config.hottestSource());
+        carryFrozen = config.carriesFrozenCells();
+        double cornerHeatAvg = config.averageSource();
+        targetTemp = config.redhottemp < cornerHeatAvg ? config.redhottemp * .90 : cornerHeatAvg;
+
+        List<SimulationConfig.HeatSource> sources = config.effectiveSources();
+        long[][] byIndex = new long[sources.size()][];
+        for (int i = 0; i < byIndex.length; i++) {
+            SimulationConfig.HeatSource s = sources.get(i);
+            byIndex[i] = new long[] { (long) s.x * height + s.y, i };
+        }
+        Arrays.sort(byIndex, (p, q) -> Long.compare(p[0], q[0]));
+        sourceIdx = new long[byIndex.length];
+        sourceTemp = new double[byIndex.length];
+        for (int i = 0; i < byIndex.length; i++) {
+            sourceIdx[i] = byIndex[i][0];
+            sourceTemp[i] = sources.get((int) byIndex[i][1]).temp;
+        }
+
+        long leafCells = config.granularity > 0 ? config.granularity : Math.max(1, cells / config.effectiveParallelism());
+        leafColumns = Math.max(1, leafCells / height);
+
+        scope = ResourceScope.newSharedScope();
+        try {
+            if (config.storage == SimulationConfig.Storage.MAPPED) {
+                Path path = Paths.get(config.storageFile);
+                try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    // one byte at the end, the rest stays sparse until the sweeps touch it
+                    if (ch.size() < 16 * cells)
+                        ch.write(ByteBuffer.allocate(1), 16 * cells - 1);
+                }
+                MemorySegment file = MemorySegment.mapFile(path, 0, 16 * cells, FileChannel.MapMode.READ_WRITE, scope);
+                A = file.asSlice(0, 8 * cells);
+                B = file.asSlice(8 * cells, 8 * cells);
+            } else {
+                A = MemorySegment.allocateNative(8 * cells, 8, scope);
+                B = MemorySegment.allocateNative(8 * cells, 8, scope);
+            }
+        } catch (IOException e) {
+            scope.close();
+            throw new UncheckedIOException(e);
+        }
+        cellsA = new Segment(A);
+        cellsB = new Segment(B);
+    }
+
+    @Override
+    public SimulationResult run() {
+        ForkJoinPool pool = config.parallelism > 0 ? new ForkJoinPool(config.parallelism) : ForkJoinPool.commonPool();
+        try {
+            Columns tree = new Columns(0, width), last = null;
+            read = null;
+            pool.invoke(tree);
+            tree.reinitialize();
+            for (int i = 0; i < sourceIdx.length; i++) {
+                MemoryAccess.setDoubleAtIndex(A, sourceIdx[i], sourceTemp[i]);
+                MemoryAccess.setDoubleAtIndex(B, sourceIdx[i], sourceTemp[i]);
+            }
+            long start = System.nanoTime();
+            long sinceCheck = 0;
+            while (sweeps < config.maxSweeps) {
+                boolean even = (sweeps & 1) == 0;
+                read = even ? cellsA : cellsB;
+                write = even ? cellsB : cellsA;
+                pool.invoke(tree);
+                tree.reinitialize();
+                last = tree;
+                sweeps++;
+                if (firstResidual < 0)
+                    firstResidual = residual(last);
+                if (!config.ignoreConvergence && ++sinceCheck >= config.checkInterval) {
+                    sinceCheck = 0;
+                    if (converged(last))
+                        break;
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            if ((sweeps & 1) == 1)
+                A.copyFrom(B);
+            if (A.isMapped())
+                A.force();
+            double[] field = cells <= SimulationConfig.MAX_HEAP_CELLS ? A.toDoubleArray() : null;
+            long leaves = (width + leafColumns - 1) / leafColumns;
+            return new SimulationResult(width, height, field, sweeps, elapsed,
+                    last != null ? last.lowestTemp : convergenceTemp, last != null ? residual(last) : 0,
+                    last != null && converged(last), (int) leaves, (int) Math.min(Integer.MAX_VALUE, leafColumns * height));
+        } finally {
+            scope.close();
+            if (pool != ForkJoinPool.commonPool())
+                pool.shutdown();
+        }
+    }
+
+    double residual(Columns c) {
+        return config.convergence == SimulationConfig.Convergence.L2 ? Math.sqrt(c.sumSquares) : c.maxDelta;
+    }
+
+    boolean converged(Columns c) {
+        if (config.convergence == SimulationConfig.Convergence.LOWEST_TEMP)
+            return c.lowestTemp >= targetTemp;
+        double tolerance = config.relativeTolerance ? config.tolerance * firstResidual : config.tolerance;
+        return residual(c) <= tolerance;
+    }
+
+    // StencilKernel's view of a segment
+    static final class Segment implements StencilKernel.Cells {
+        final MemorySegment segment;
+
+        Segment(MemorySegment segment) {
+            this.segment = segment;
+        }
+
+        @Override
+        public double get(long idx) {
+            return MemoryAccess.getDoubleAtIndex(segment, idx);
+        }
+
+        @Override
+        public void set(long idx, double t) {
+            MemoryAccess.setDoubleAtIndex(segment, idx, t);
+        }
+    }
+
+    // Columns lo..hi-1, split until a leaf has leafColumns columns; each sweep reads read and writes write, the
+    // lowest temp and residuals are reduced on the way back up and a node resets its children before running
+    // them again. With a null read it fills both matrices with the initial temp instead.
+    final class Columns extends RecursiveAction {
+        final int lo, hi;
+        final Columns left, right; // null in a leaf
+        final double[] neighbors, change; // a leaf's scratch, see StencilKernel.sweepColumn
+        Segment a, b;
+        double lowestTemp, maxDelta, sumSquares;
+
+        Columns(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+            if (hi - lo > leafColumns) {
+                int mid = (lo + hi) >>> 1;
+                left = new Columns(lo, mid);
+                right = new Columns(mid, hi);
+                neighbors = change = null;
+            } else {
+                left = right = null;
+                neighbors = new double[8];
+                change = new double[2];
+            }
+        }
+
+        protected void compute() {
+            if (left != null) {
+                left.reinitialize();
+                right.reinitialize();
+                invokeAll(left, right);
+                lowestTemp = Math.min(left.lowestTemp, right.lowestTemp);
+                maxDelta = Math.max(left.maxDelta, right.maxDelta);
+                sumSquares = left.sumSquares + right.sumSquares;
+                return;
+            }
+            a = read;
+            b = write;
+            if (a == null) {
+                double t = config.initialTemp;
+                for (long idx = (long) lo * height, end = (long) hi * height; idx < end; idx++) {
+                    MemoryAccess.setDoubleAtIndex(A, idx, t);
+                    MemoryAccess.setDoubleAtIndex(B, idx, t);
+                }
+                return;
+            }
+            lowestTemp = convergenceTemp;
+            change[0] = change[1] = 0;
+            for (int i = lo; i < hi; i++) {
+                sweepColumn(i);
+                if (carryFrozen)
+                    carryFrozen((long) i * height);
+            }
+            maxDelta = change[0];
+            sumSquares = change[1];
+        }
+
+        // HeatEngine.LeafNode.sweep for one column: edges cell by cell, the interior through the kernel in runs
+        // between sources
+        private void sweepColumn(int i) {
+            long col = (long) i * height;
+            int s = firstSource(col);
+            if (i == 0 || i == width - 1 || height < 3) {
+                for (int j = 0; j < height; j++)
+                    s = edgeCell(i, j, col + j, s);
+                return;
+            }
+            s = edgeCell(i, 0, col, s);
+            for (int lo = 1, last = height - 2; lo <= last; ) {
+                long next = s < sourceIdx.length ? sourceIdx[s] : Long.MAX_VALUE;
+                int hi = (int) Math.min(last, next - col - 1);
+                if (hi >= lo)
+                    lowestTemp = stencil.sweepColumn(a, b, col, height, lo, hi, convergenceTemp, lowestTemp,
+                            change, neighbors);
+                if (hi == last)
+                    break;
+                // skip the source at row hi + 1
+                s++;
+                lo = hi + 2;
+            }
+            edgeCell(i, height - 1, col + height - 1, s);
+        }
+
+        // findNeighbors/calcNewTemp for (i, j) unless it's a source or converged; returns the next source's position
+        private int edgeCell(int i, int j, long idx, int s) {
+            if (s < sourceIdx.length && sourceIdx[s] == idx)
+                return s + 1;
+            double old = a.get(idx);
+            if (old < convergenceTemp)
+                update(idx, old, edgeTemp(i, j, idx));
+            return s;
+        }
+
+        // copies the column's frozen cells from a into b, which the sweep skipped
+        private void carryFrozen(long col) {
+            for (long idx = col, end = col + height; idx < end; idx++) {
+                double t = a.get(idx);
+                if (t >= convergenceTemp)
+                    b.set(idx, t);
+            }
+        }
+
+        private void update(long idx, double old, double newTemp) {
+            double written = b.get(idx);
+            // see LeafNode.previous
+            double delta = newTemp - (written >= convergenceTemp ? written : old);
+            b.set(idx, newTemp);
+            if (newTemp < lowestTemp) lowestTemp = newTemp;
+            change[0] = Math.max(change[0], Math.abs(delta));
+            change[1] += delta * delta;
+        }
+
+        // findNeighbors for a cell on the plate's edge, neighbors in the same order, then the kernel's cell()
+        private double edgeTemp(int x, int y, long idx) {
+            final long st = height;
+            double[] nb = neighbors;
+            int n;
+            boolean xEdge = x == 0 || x == width - 1, yEdge = y == 0 || y == height - 1;
+            if (xEdge && yEdge) {
+                long dx = x == 0 ? st : -st, dy = y == 0 ? 1 : -1;
+                nb[0] = at(idx + dy);
+                nb[1] = at(idx + dx);
+                nb[2] = at(idx + dx + dy);
+                n = 3;
+            } else {
+                if (x == 0) {
+                    nb[0] = at(idx - 1); nb[1] = at(idx + st - 1); nb[2] = at(idx + st); nb[3] = at(idx + st + 1); nb[4] = at(idx + 1);
+                } else if (x == width - 1) {
+                    nb[0] = at(idx + 1); nb[1] = at(idx - st + 1); nb[2] = at(idx - st); nb[3] = at(idx - st - 1); nb[4] = at(idx - 1);
+                } else if (y == 0) {
+                    nb[0] = at(idx - st); nb[1] = at(idx - st + 1); nb[2] = at(idx + 1); nb[3] = at(idx + st + 1); nb[4] = at(idx + st);
+                } else {
+                    nb[0] = at(idx + st); nb[1] = at(idx + st - 1); nb[2] = at(idx - 1); nb[3] = at(idx - st - 1); nb[4] = at(idx - st);
+                }
+                n = 5;
+            }
+            return stencil.cell(nb, n, xEdge);
+        }
+
+        private double at(long idx) {
+            return a.get(idx);
+        }
+    }
+
+    // position in sourceIdx of the first source at or after idx
+    int firstSource(long idx) {
+        int p = Arrays.binarySearch(sourceIdx, idx);
+        return p >= 0 ? p : -p - 1;
+    }
+}
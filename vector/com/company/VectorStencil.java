@@ -0,0 +1,119 @@
+package com.company;
+
+// Interior kernel on the Vector API. Lanes are consecutive rows of one column, so the eight neighbors of a
+// whole vector of cells are eight plain loads at fixed offsets (the column to the left, the one to the right,
+// and this column shifted a row either way), and calcNewTemp's three metal sums and the hottest neighbor clamp
+// become a handful of lanewise multiplies, adds and maxes. Every lane does the same operations in the same
+// order as calcNewTemp, so the results match the scalar path bit for bit.
+//
+// jdk.incubator.vector isn't resolved by default, so this lives outside com/company and is built and run with
+//
+//   javac --add-modules jdk.incubator.vector -d out com/company/*.java vector/com/company/*.java
+//   java --add-modules jdk.incubator.vector -cp out com.company.HeatCli ...
+//
+// Without it HeatEngine can't load the class and sticks to the scalar path.
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+final class VectorStencil implements HeatEngine.InteriorKernel {
+    static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    final HeatGrid grid;
+    final int height;
+    final double convergenceTemp;
+    final double aConstant, bConstant, cConstant, aRatio, bRatio, cRatio;
+
+    VectorStencil(HeatEngine engine) {
+        grid = engine.grid;
+        height = engine.height;
+        convergenceTemp = engine.convergenceTemp;
+        aConstant = engine.A_CONSTANT;
+        bConstant = engine.B_CONSTANT;
+        cConstant = engine.C_CONSTANT;
+        aRatio = engine.A_RATIO;
+        bRatio = engine.B_RATIO;
+        cRatio = engine.C_RATIO;
+    }
+
+    @Override
+    public double sweepColumn(double[] a, double[] b, int col, int lo, int hi, double lowest, double[] change) {
+        int stride = height;
+        int lanes = SPECIES.length();
+        DoubleVector lt = DoubleVector.broadcast(SPECIES, lowest);
+        DoubleVector d = DoubleVector.zero(SPECIES), ss = DoubleVector.zero(SPECIES);
+        for (int j = lo; j <= hi; j += lanes) {
+            int idx = col * stride + j;
+            VectorMask<Double> inRange = SPECIES.indexInRange(j, hi + 1);
+            // same order as getInnerNeighbors
+            DoubleVector n0 = DoubleVector.fromArray(SPECIES, a, idx - stride + 1, inRange);
+            DoubleVector n1 = DoubleVector.fromArray(SPECIES, a, idx - stride, inRange);
+            DoubleVector n2 = DoubleVector.fromArray(SPECIES, a, idx - stride - 1, inRange);
+            DoubleVector n3 = DoubleVector.fromArray(SPECIES, a, idx - 1, inRange);
+            DoubleVector n4 = DoubleVector.fromArray(SPECIES, a, idx + stride - 1, inRange);
+            DoubleVector n5 = DoubleVector.fromArray(SPECIES, a, idx + stride, inRange);
+            DoubleVector n6 = DoubleVector.fromArray(SPECIES, a, idx + stride + 1, inRange);
+            DoubleVector n7 = DoubleVector.fromArray(SPECIES, a, idx + 1, inRange);
+
+            DoubleVector newTemp = metalTemp(aConstant, aRatio, n0, n1, n2, n3, n4, n5, n6, n7)
+                    .add(metalTemp(bConstant, bRatio, n0, n1, n2, n3, n4, n5, n6, n7))
+                    .add(metalTemp(cConstant, cRatio, n0, n1, n2, n3, n4, n5, n6, n7));
+            // hottestNeighbor never looks at the last neighbor
+            DoubleVector hottest = n0.max(n1).max(n2).max(n3).max(n4).max(n5).max(n6);
+            newTemp = newTemp.min(hottest);
+
+            DoubleVector old = DoubleVector.fromArray(SPECIES, a, idx, inRange);
+            VectorMask<Double> update = inRange.and(old.compare(VectorOperators.LT, convergenceTemp));
+            long sources = sourceBits(idx, lanes);
+            if (sources != 0)
+                update = update.andNot(sourceMask(sources, lanes));
+            // see LeafNode.previous
+            DoubleVector written = DoubleVector.fromArray(SPECIES, b, idx, inRange);
+            DoubleVector previous = old.blend(written, written.compare(VectorOperators.GE, convergenceTemp));
+            DoubleVector delta = newTemp.sub(previous);
+            newTemp.intoArray(b, idx, update);
+            lt = lt.lanewise(VectorOperators.MIN, newTemp, update);
+            d = d.lanewise(VectorOperators.MAX, delta.abs(), update);
+            ss = ss.lanewise(VectorOperators.ADD, delta.mul(delta), update);
+        }
+        change[0] = Math.max(change[0], d.reduceLanes(VectorOperators.MAX));
+        change[1] += ss.reduceLanes(VectorOperators.ADD);
+        return lt.reduceLanes(VectorOperators.MIN);
+    }
+
+    // calcNewTemp's metalTemp for a vector of cells: sum of neighbor * ratio in neighbor order, then
+    // constant * sum / 8
+    private static DoubleVector metalTemp(double constant, double ratio,
+                                          DoubleVector n0, DoubleVector n1, DoubleVector n2, DoubleVector n3,
+                                          DoubleVector n4, DoubleVector n5, DoubleVector n6, DoubleVector n7) {
+        DoubleVector sum = n0.mul(ratio)
+                .add(n1.mul(ratio))
+                .add(n2.mul(ratio))
+                .add(n3.mul(ratio))
+                .add(n4.mul(ratio))
+                .add(n5.mul(ratio))
+                .add(n6.mul(ratio))
+                .add(n7.mul(ratio));
+        return sum.mul(constant).div(8);
+    }
+
+    // the source bits of cells idx..idx+lanes-1, lowest bit first
+    private long sourceBits(int idx, int lanes) {
+        long[] s = grid.sources;
+        int word = idx >>> 6, shift = idx & 63;
+        long bits = s[word] >>> shift;
+        if (shift + lanes > 64 && word + 1 < s.length)
+            bits |= s[word + 1] << (64 - shift);
+        return lanes == 64 ? bits : bits & ((1L << lanes) - 1);
+    }
+
+    // sources are rare, so building the mask the slow way is fine
+    private static VectorMask<Double> sourceMask(long bits, int lanes) {
+        boolean[] m = new boolean[lanes];
+        for (int i = 0; i < lanes; i++)
+            m[i] = (bits >>> i & 1) != 0;
+        return VectorMask.fromArray(SPECIES, m, 0);
+    }
+}